@@ -1,29 +1,47 @@
 package miniplc0java;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
 import miniplc0java.analyser.FunctionTable;
 import miniplc0java.analyser.SymbolTable;
 import miniplc0java.error.CompileError;
+import miniplc0java.optimizer.CallGraph;
+import miniplc0java.optimizer.CommonSubexpressionEliminator;
+import miniplc0java.optimizer.Inliner;
+import miniplc0java.optimizer.JumpThreading;
+import miniplc0java.optimizer.PeepholeOptimizer;
+import miniplc0java.optimizer.UnreachableCodeEliminator;
+import miniplc0java.tokenizer.ParallelTokenizer;
 import miniplc0java.tokenizer.StringIter;
 
 import miniplc0java.tokenizer.Tokenizer;
 import miniplc0java.vm.o0;
 
 public class App {
+    // 流式读取源文件时窗口的字符数
+    static final int INPUT_WINDOW = 1 << 16;
+    // 不超过这个大小的源文件整体读入字节数组，纯 ASCII 时可以用 AsciiScanner 成段扫描
+    static final long WHOLE_INPUT_THRESHOLD = 1L << 20;
+
+    // 不小于这个大小的源文件在多核且堆足够放下全部 token 时并行解析
+    static final long PARALLEL_THRESHOLD = 8L << 20;
+    // 整体解析时每字节源码大约需要的堆空间，按 token 数组的占用粗略估计
+    static final long BYTES_PER_SOURCE_BYTE = 8;
+
     public static void main(String[] args) throws CompileError, IOException {
 
         var inputFileName = args[1];
         var outputFileName = args[3];
 
-        InputStream input;
-        try {
-            input = new FileInputStream(inputFileName);
-        } catch (FileNotFoundException e) {
+        Path input = Path.of(inputFileName);
+        if (!Files.isReadable(input)) {
             System.err.println("Cannot find input file.");
-            e.printStackTrace();
             System.exit(2);
             return;
         }
@@ -38,16 +56,40 @@ public class App {
             return;
         }
 
-        Scanner scanner;
-        scanner = new Scanner(input);
-        var iter = new StringIter(scanner);
-        var tokenizer = tokenize(iter);
         var globalTable = new SymbolTable();
+        var constantPool = new ConstantPool();
         HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
 
-        var analyzer = new Analyser(tokenizer, globalTable, functionTables);
-        analyzer.analyse();
-        o0 o00 = new o0(globalTable, functionTables);
+        long size = Files.size(input);
+        boolean parallel = useParallelLexer(size);
+        boolean whole = !parallel && size <= WHOLE_INPUT_THRESHOLD;
+        // 流式读入时 token 在分析过程中才读出，通道要到分析结束才能关闭
+        try (FileChannel channel = parallel || whole ? null : FileChannel.open(input)) {
+            Analyser analyzer;
+            if (parallel) {
+                var tokens = new ParallelTokenizer(new StringIter(input)).tokenizeAll();
+                analyzer = new Analyser(tokens, globalTable, constantPool, functionTables);
+            } else if (whole) {
+                var tokenizer = tokenize(new StringIter(Files.readAllBytes(input)));
+                analyzer = new Analyser(tokenizer, globalTable, constantPool, functionTables);
+            } else {
+                // 源文件按定长窗口流式读入，token 边读边交给 Analyser，内存占用与输入大小无关
+                var iter = new StringIter(channel, INPUT_WINDOW);
+                var tokenizer = tokenize(iter);
+                analyzer = new Analyser(tokenizer, globalTable, constantPool, functionTables);
+            }
+            analyzer.setInlineBudget(Inliner.DEFAULT_BUDGET);
+            analyzer.analyse();
+        }
+
+        for (FunctionTable functionTable : functionTables.values()) {
+            UnreachableCodeEliminator.eliminate(functionTable.getBody());
+            JumpThreading.thread(functionTable.getBody());
+            functionTable.setLocals(CommonSubexpressionEliminator.eliminate(functionTable.getBody(), functionTable.getLocals()));
+        }
+        new CallGraph(constantPool, functionTables).eliminate();
+        new PeepholeOptimizer().optimize(functionTables);
+        o0 o00 = new o0(constantPool, functionTables);
 
         System.out.println(o00.toString());
         System.out.println(o00.toVmCode());
@@ -56,6 +98,16 @@ public class App {
         }
     }
 
+    /**
+     * 大文件在多核上并行解析，但需要把全部 token 放在堆上，堆不够时仍然流式解析
+     */
+    private static boolean useParallelLexer(long size) {
+        Runtime runtime = Runtime.getRuntime();
+        return size >= PARALLEL_THRESHOLD
+                && runtime.availableProcessors() > 1
+                && size * BYTES_PER_SOURCE_BYTE < runtime.maxMemory() / 2;
+    }
+
     private static Tokenizer tokenize(StringIter iter) {
         var tokenizer = new Tokenizer(iter);
         return tokenizer;
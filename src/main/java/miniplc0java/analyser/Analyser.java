@@ -7,22 +7,47 @@ import miniplc0java.error.ExpectedTokenError;
 import miniplc0java.error.TokenizeError;
 import miniplc0java.instruction.Instruction;
 import miniplc0java.instruction.Operation;
-import miniplc0java.tokenizer.Token;
+import miniplc0java.ir.AlgebraicSimplifier;
+import miniplc0java.ir.ConstantFolder;
+import miniplc0java.ir.LoopInvariantMotion;
+import miniplc0java.ir.Lowering;
+import miniplc0java.ir.NodeKind;
+import miniplc0java.ir.Tree;
+import miniplc0java.optimizer.Inliner;
+import miniplc0java.tokenizer.TokenBuffer;
 import miniplc0java.tokenizer.TokenType;
 import miniplc0java.tokenizer.Tokenizer;
-import miniplc0java.util.Pos;
+import miniplc0java.util.StringPool;
 
 import java.util.*;
 
 public final class Analyser {
 
-    Tokenizer tokenizer;
+    /**
+     * token 序列，通过下标读取
+     */
+    TokenBuffer tokens;
+
+    /**
+     * 下一个要读取的 token 的下标
+     */
+    int cursor = 0;
+
+    /**
+     * 字符串池，符号表和函数表都以其中的 id 为键
+     */
+    StringPool stringPool;
 
     /**
      * 全局符号表
      */
     SymbolTable globalTable;
 
+    /**
+     * 全局变量和字符串常量
+     */
+    ConstantPool constantPool;
+
     /**
      * 整体符号表
      */
@@ -31,13 +56,28 @@ public final class Analyser {
     /**
      * 参数暂存
      */
-    HashMap argsMap;
+    List<SymbolEntry> argsList;
 
     /**
      * 函数符号表及指令集
      */
     HashMap<String, FunctionTable> functionTables;
 
+    /**
+     * 按函数名 id 索引的函数表
+     */
+    FunctionTable[] functionsById;
+
+    /**
+     * 按函数名 id 索引的标准库函数指令
+     */
+    Operation[] stdlib;
+
+    /**
+     * 类型名和 main 的 id
+     */
+    int voidName, intName, doubleName, mainName;
+
     /**
      * 当前函数
      */
@@ -49,41 +89,88 @@ public final class Analyser {
     FunctionTable initTable;
 
     /**
-     * 当前偷看的 token
+     * 当前所在 while 的嵌套层数，用于检查 break / continue
+     */
+    int loopDepth;
+
+    /**
+     * 当前函数下一个空闲的局部变量槽位
+     * 块结束时它的局部变量不再可见，槽位退还给之后的兄弟块复用，函数的 locals 只记录同时存在的局部变量数的最大值
      */
-    Token peekedToken = null;
+    int nextLocal;
 
     /**
-     * 当前所在while block
+     * 当前函数的中间表示，_start 函数和其他函数各用一个 Tree，其他函数分析完就降低为指令，Tree 留给下一个函数
      */
-    int blockLevel;
+    Tree tree;
 
-    LinkedList<Integer> levelStack;
+    Tree initTree;
 
-    LinkedList<WhileBlock> blockStack;
+    Tree functionTree;
 
-    int maxLevel;
+    /**
+     * _start 函数的根块，全局变量的初始化语句依次加入其中
+     */
+    int initBlock;
 
-    public Analyser(Tokenizer tokenizer, SymbolTable globalTable, HashMap<String, FunctionTable> functionTables) {
-        this.tokenizer = tokenizer;
+    Lowering lowering = new Lowering();
+
+    /**
+     * 降低调用时内联小函数，默认不内联
+     */
+    Inliner inliner = new Inliner(0);
+
+    /**
+     * 表达式分析用的栈，analyseExpr 不会递归调用自己，所有表达式共用一个
+     */
+    ExprStack exprStack = new ExprStack();
+
+    /**
+     * 最近一次分析的表达式的结果
+     */
+    SymbolEntry exprEntry;
+
+    /**
+     * 边解析边读取 token
+     */
+    public Analyser(Tokenizer tokenizer, SymbolTable globalTable, ConstantPool constantPool, HashMap<String, FunctionTable> functionTables) {
+        this(new TokenBuffer(tokenizer), globalTable, constantPool, functionTables);
+    }
+
+    public Analyser(TokenBuffer tokens, SymbolTable globalTable, ConstantPool constantPool, HashMap<String, FunctionTable> functionTables) {
+        this.tokens = tokens;
+        this.stringPool = tokens.getStringPool();
         this.globalTable = globalTable;
+        this.constantPool = constantPool;
         this.symbolTable = globalTable;
         this.functionTables = functionTables;
+        this.functionsById = new FunctionTable[stringPool.size() + 16];
+        this.initTree = new Tree();
+        this.functionTree = new Tree();
+        this.tree = initTree;
+        this.initBlock = initTree.addBlock();
+        init_stdlib();
         init_start();
-        this.argsMap = new LinkedHashMap();
-        this.blockLevel = 0;
-        this.levelStack = new LinkedList<>();
-        this.blockStack = new LinkedList<>();
-        this.maxLevel = 0;
+        this.argsList = new ArrayList<>();
+        this.loopDepth = 0;
+        lowering.setInliner(inliner);
+    }
+
+    /**
+     * 设置内联的预算，被调函数的指令数不超过它时在调用处展开，为 0 时不内联
+     */
+    public void setInlineBudget(int budget) {
+        inliner.setBudget(budget);
     }
 
     public void analyse() throws CompileError {
         analyseProgram();
+        // 全局变量的初始化语句降低为_start函数的指令
+        // _start函数本身没有局部变量，只有内联展开时需要槽位
+        initTable.locals = lowering.lower(initTree, initBlock, -1, 0, 0, initTable.body);
         // 设置_start函数调用main
-        int order = functionTables.get("main").order;
+        int order = getFunction(mainName).order;
         addInstruction(Operation.callname, order);
-        // 设置_start函数局部变量数为0
-        functionTable.locals = 0;
     }
 
     public void init_start() {
@@ -93,36 +180,56 @@ public final class Analyser {
         this.functionTable = functionTable;
         this.initTable = functionTable;
         functionTables.put(name, functionTable);
-        addString(name);
+        addFunctionName(stringPool.intern(name));
+    }
+
+    public void init_stdlib() {
+        String[] names = {"getint", "getdouble", "getchar", "putint", "putdouble", "putchar", "putstr", "putln"};
+        Operation[] operations = {Operation.scani, Operation.scanf, Operation.scanc, Operation.printi,
+                Operation.printf, Operation.printc, Operation.prints, Operation.println};
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = stringPool.intern(names[i]);
+        }
+        this.voidName = stringPool.intern("void");
+        this.intName = stringPool.intern("int");
+        this.doubleName = stringPool.intern("double");
+        this.mainName = stringPool.intern("main");
+        this.stdlib = new Operation[stringPool.size()];
+        for (int i = 0; i < names.length; i++) {
+            stdlib[ids[i]] = operations[i];
+        }
     }
 
     /**
-     * 查看下一个 Token
+     * 查看下一个 Token 的类型
      *
      * @return
      * @throws TokenizeError
      */
-    private Token peek() throws TokenizeError {
-        if (peekedToken == null) {
-            peekedToken = tokenizer.nextToken();
-        }
-        return peekedToken;
+    private TokenType peek() throws TokenizeError {
+        return tokens.getType(cursor);
     }
 
     /**
-     * 获取下一个 Token
+     * 向前查看第 k 个 Token 的类型，peek(0) 即 peek()
      *
      * @return
      * @throws TokenizeError
      */
-    private Token next() throws TokenizeError {
-        if (peekedToken != null) {
-            var token = peekedToken;
-            peekedToken = null;
-            return token;
-        } else {
-            return tokenizer.nextToken();
-        }
+    private TokenType peek(int k) throws TokenizeError {
+        return tokens.getType(cursor + k);
+    }
+
+    /**
+     * 获取下一个 Token
+     *
+     * @return 这个 token 在 tokens 中的下标
+     * @throws TokenizeError
+     */
+    private int next() throws TokenizeError {
+        tokens.getType(cursor);
+        return cursor++;
     }
 
     /**
@@ -133,23 +240,22 @@ public final class Analyser {
      * @throws TokenizeError
      */
     private boolean check(TokenType tt) throws TokenizeError {
-        var token = peek();
-        return token.getTokenType() == tt;
+        return peek() == tt;
     }
 
     /**
-     * 如果下一个 token 的类型是 tt，则前进一个 token 并返回这个 token
+     * 如果下一个 token 的类型是 tt，则前进一个 token
      *
      * @param tt 类型
-     * @return 如果匹配则返回这个 token，否则返回 null
+     * @return 是否匹配
      * @throws TokenizeError
      */
-    private Token nextIf(TokenType tt) throws TokenizeError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
-            return next();
+    private boolean nextIf(TokenType tt) throws TokenizeError {
+        if (peek() == tt) {
+            cursor++;
+            return true;
         } else {
-            return null;
+            return false;
         }
     }
 
@@ -157,15 +263,14 @@ public final class Analyser {
      * 如果下一个 token 的类型是 tt，则前进一个 token 并返回，否则抛出异常
      *
      * @param tt 类型
-     * @return 这个 token
+     * @return 这个 token 的下标
      * @throws CompileError 如果类型不匹配
      */
-    private Token expect(TokenType tt) throws CompileError {
-        var token = peek();
-        if (token.getTokenType() == tt) {
+    private int expect(TokenType tt) throws CompileError {
+        if (peek() == tt) {
             return next();
         } else {
-            throw new ExpectedTokenError(tt, token);
+            throw new ExpectedTokenError(tt, tokens.get(cursor), tokens.getLineTable());
         }
     }
 
@@ -173,19 +278,29 @@ public final class Analyser {
      * 查符号表
      * 调用SymbolTable类的get方法
      */
-    public SymbolEntry getSymbolEntry(String name) {
+    public SymbolEntry getSymbolEntry(int name) {
         return symbolTable.get(name);
     }
 
+    /**
+     * 按名字 id 查函数表
+     */
+    public FunctionTable getFunction(int name) {
+        if (name >= functionsById.length) {
+            return null;
+        }
+        return functionsById[name];
+    }
+
     /**
      * 添加局部变量或全局变量
      */
-    public SymbolEntry addSymbol(String name, boolean isInitialized, boolean isConstant, Pos curPos, Type type, boolean isArg) throws AnalyzeError {
+    public SymbolEntry addSymbol(int name, boolean isInitialized, boolean isConstant, int curOffset, Type type, boolean isArg) throws AnalyzeError {
         int order, scope, def = 1;
         SymbolEntry symbol;
 
         if (symbolTable.getCurrent(name) != null)
-            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
+            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curOffset, tokens.getLineTable());
 
         if (functionTable.isGlobal()) {
             scope = 0;
@@ -193,39 +308,56 @@ public final class Analyser {
             scope = 2;
         }
 
-        // 符号根据functionTable中的locals决定
-        // 全局变量个数存在_start函数的locals中
-        order = functionTable.locals ++;
+        // 局部变量使用当前空闲的槽位
+        // 全局变量与字符串常量共用序号，由常量池分配
+        if (scope == 0) {
+            order = -1;
+        } else {
+            order = nextLocal ++;
+            functionTable.locals = Math.max(functionTable.locals, nextLocal);
+        }
 
         symbol = new SymbolEntry(isConstant, isInitialized, def, type, scope, order);
+        if (scope == 0) {
+            constantPool.addVariable(symbol);
+        }
         symbolTable.put(name, symbol);
         return symbol;
     }
 
     /**
      * 添加函数形参
-     * 函数形参暂存到临时表argsMap中
-     * 当分析完函数声明、执行完startFunction方法后，将argsMap添加到symbolTable中
+     * 函数形参暂存到临时表argsList中
+     * 当分析完函数声明、执行完startFunction方法后，将argsList添加到symbolTable中
      */
-    public SymbolEntry addArg(String name, boolean isInitialized, boolean isConstant, Pos curPos, Type type, boolean isArg) throws AnalyzeError {
+    public SymbolEntry addArg(int name, boolean isInitialized, boolean isConstant, int curOffset, Type type, boolean isArg) throws AnalyzeError {
         int order = functionTable.args ++, scope = 1, def = 1;
         SymbolEntry symbol;
 
-        if (argsMap.get(name) != null)
-            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
+        for (SymbolEntry arg : argsList) {
+            if (arg.name == name)
+                throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curOffset, tokens.getLineTable());
+        }
 
         symbol = new SymbolEntry(isConstant, isInitialized, def, type, scope, order);
-        argsMap.put(name, symbol);
+        symbol.name = name;
+        argsList.add(symbol);
         return symbol;
     }
 
     /**
-     * 添加字符串到全局变量表
+     * 添加字符串常量，同样的字符串只占一个全局变量
      */
-    public SymbolEntry addString(String value) {
-        int order = initTable.locals ++;
-        SymbolEntry symbol = new SymbolEntry(true, true, 1, Type.string_ty, 0, order);
-        globalTable.put(value, symbol);
+    public SymbolEntry addString(int value) {
+        return constantPool.addString(stringPool.get(value));
+    }
+
+    /**
+     * 添加函数名，函数名作为字符串常量保存，同时在全局符号表中声明，与全局变量不能重名
+     */
+    private SymbolEntry addFunctionName(int name) {
+        SymbolEntry symbol = addString(name);
+        globalTable.put(name, symbol);
         return symbol;
     }
 
@@ -238,27 +370,17 @@ public final class Analyser {
         return instruction;
     }
 
-    public void addInstruction(Operation opt, Long x) {
-        this.functionTable.body.add(new Instruction(opt, x));
-    }
-
-    public void addInstruction(Operation opt, Double x) {
-        this.functionTable.body.add(new Instruction(opt, x));
-    }
-
     public void addInstruction(Operation opt) {
         this.functionTable.body.add(new Instruction(opt));
     }
 
-    public void popInstruction() {
-        this.functionTable.body.remove(this.functionTable.body.size() - 1);
-    }
-
     /**
-     * 获取当前指令在指令集body中的序号
+     * 在块的末尾添加语句，没有生成节点的语句（如没有初值的声明）为 -1
      */
-    public int getInstructionOffset() {
-        return this.functionTable.body.size();
+    private void append(int block, int statement) {
+        if (statement != -1) {
+            tree.append(block, statement);
+        }
     }
 
     /**
@@ -266,24 +388,37 @@ public final class Analyser {
      * 添加函数名至全局变量表
      * 生成新函数结构，并存入函数表
      */
-    public void startFunction(String name, Pos curPos) throws AnalyzeError {
+    public void startFunction(int name, int curOffset) throws AnalyzeError {
         if (globalTable.get(name) != null) {
-            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curPos);
+            throw new AnalyzeError(ErrorCode.DuplicateDeclaration, curOffset, tokens.getLineTable());
         }
-        SymbolEntry symbolEntry = addString(name);
+        SymbolEntry symbolEntry = addFunctionName(name);
         this.functionTable = new FunctionTable(symbolEntry.order);
-        functionTables.put(name, functionTable);
+        this.nextLocal = 0;
+        inliner.addFunction(functionTable);
+        functionTables.put(stringPool.get(name), functionTable);
+        if (name >= functionsById.length) {
+            functionsById = Arrays.copyOf(functionsById, Math.max(name + 1, functionsById.length * 2));
+        }
+        functionsById[name] = functionTable;
+        this.tree = functionTree;
+        tree.clear();
     }
 
     /**
      * 退出函数编译状态
+     * 将函数体降低为指令
      * return check
      * 将当前functionTable置换为_start
      */
-    public void endFunction() {
+    public void endFunction(int body) {
+        int argOffset = functionTable.type == Type.void_ty ? 0 : 1;
+        int locals = LoopInvariantMotion.hoistAll(tree, body, functionTable.locals);
+        functionTable.locals = lowering.lower(tree, body, functionTable.order, argOffset, locals, functionTable.body);
         if (this.functionTable.body.size() == 0 || this.functionTable.body.get(this.functionTable.body.size() - 1).getOpt() != Operation.ret)
             addInstruction(Operation.ret);
         this.functionTable = initTable;
+        this.tree = initTree;
     }
 
     private void analyseProgram() throws CompileError {
@@ -293,14 +428,14 @@ public final class Analyser {
 
         while(true) {
             var peeked = peek();
-            if (peeked.getTokenType() == TokenType.FN_KW) {
+            if (peeked == TokenType.FN_KW) {
                 analyseFunction();
             }
-            else if (peeked.getTokenType() == TokenType.LET_KW) {
-                analyseLetDeclStmt();
+            else if (peeked == TokenType.LET_KW) {
+                append(initBlock, analyseLetDeclStmt());
             }
-            else if(peeked.getTokenType() == TokenType.CONST_KW) {
-                analyseConstDeclStmt();
+            else if(peeked == TokenType.CONST_KW) {
+                append(initBlock, analyseConstDeclStmt());
             }
             else {
                 expect(TokenType.EOF);
@@ -313,30 +448,30 @@ public final class Analyser {
         // function -> 'fn' IDENT '(' function_param_list? ')' '->' ty block_stmt
 
         expect(TokenType.FN_KW);
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
 
-        String name = (String) nameToken.getValue();
-        startFunction(name, nameToken.getStartPos());
+        int name = tokens.getId(nameToken);
+        startFunction(name, tokens.getStart(nameToken));
 
         expect(TokenType.L_PAREN);
-        if (peek().getTokenType() == TokenType.CONST_KW ||
-            peek().getTokenType() == TokenType.IDENT) {
+        if (peek() == TokenType.CONST_KW ||
+            peek() == TokenType.IDENT) {
             analyseFunctionParamList();
         }
         expect(TokenType.R_PAREN);
         expect(TokenType.ARROW);
         Type type = analyseType();
         functionTable.setType(type);
-        analyseBlockStmt();
+        int body = analyseBlockStmt();
 
-        endFunction();
+        endFunction(body);
     }
 
     private void analyseFunctionParamList() throws CompileError {
         // function_param_list -> function_param (',' function_param)*
 
         analyseFunctionParam();
-        while (nextIf(TokenType.COMMA) != null) {
+        while (nextIf(TokenType.COMMA)) {
             analyseFunctionParam();
         }
     }
@@ -345,201 +480,167 @@ public final class Analyser {
         // function_param -> 'const'? IDENT ':' ty
 
         boolean isConstant = false, isInitialized = true, isArg = true;
-        if (nextIf(TokenType.CONST_KW) != null) {
+        if (nextIf(TokenType.CONST_KW)) {
             isConstant = true;
         }
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
         Type type = analyseType();
-        String name = (String) nameToken.getValue();
+        int name = tokens.getId(nameToken);
 
-        addArg(name, isInitialized, isConstant, nameToken.getStartPos(), type, isArg);
+        addArg(name, isInitialized, isConstant, tokens.getStart(nameToken), type, isArg);
     }
 
-    private void analyseBlockStmt() throws CompileError {
+    private int analyseBlockStmt() throws CompileError {
         // block_stmt -> '{' stmt* '}'
         // stmt -> expr_stmt | decl_stmt | if_stmt | while_stmt |
         //          return_stmt | block_stmt | empty_stmt
 
         SymbolTable symbolTable = new SymbolTable(this.symbolTable);
         this.symbolTable = symbolTable;
-        if (argsMap.size() != 0) {
-            this.symbolTable.putAllArgs(argsMap);
-            argsMap.clear();
+        int firstLocal = nextLocal;
+        if (argsList.size() != 0) {
+            this.symbolTable.putAllArgs(argsList);
+            argsList.clear();
         }
 
+        int block = tree.addBlock();
         expect(TokenType.L_BRACE);
-        TokenType tokenType = peek().getTokenType();
+        TokenType tokenType = peek();
         while (tokenType == TokenType.LET_KW || tokenType == TokenType.CONST_KW || tokenType == TokenType.IF_KW || tokenType == TokenType.WHILE_KW
                 || tokenType == TokenType.RETURN_KW || tokenType == TokenType.L_BRACE || tokenType == TokenType.SEMICOLON
                 || tokenType == TokenType.CONTINUE_KW || tokenType == TokenType.BREAK_KW || isExpr()) {
             if (tokenType == TokenType.LET_KW) {
-                analyseLetDeclStmt();
+                append(block, analyseLetDeclStmt());
             } else if (tokenType == TokenType.CONST_KW) {
-                analyseConstDeclStmt();
+                append(block, analyseConstDeclStmt());
             } else if (tokenType == TokenType.IF_KW) {
-                analyseIfStmt();
+                append(block, analyseIfStmt());
             } else if (tokenType == TokenType.WHILE_KW) {
-                analyseWhileStmt();
+                append(block, analyseWhileStmt());
             } else if (tokenType == TokenType.RETURN_KW) {
-                analyseReturnStmt();
+                append(block, analyseReturnStmt());
             } else if (tokenType == TokenType.L_BRACE) {
-                analyseBlockStmt();
+                append(block, analyseBlockStmt());
             } else if (tokenType == TokenType.SEMICOLON) {
                 next();
             } else if (tokenType == TokenType.CONTINUE_KW) {
-                analyseContinueStmt();
+                append(block, analyseContinueStmt());
             } else if (tokenType == TokenType.BREAK_KW) {
-                analyseBreakStmt();
+                append(block, analyseBreakStmt());
             } else if (isExpr()){
-                analyseExpr();
+                append(block, analyseExpr());
                 expect(TokenType.SEMICOLON);
             } else {
                 throw new Error("Not a statement");
             }
-            tokenType = peek().getTokenType();
+            tokenType = peek();
         }
         expect(TokenType.R_BRACE);
 
-        this.symbolTable = symbolTable.upperTable;
+        this.symbolTable = symbolTable.close();
+        nextLocal = firstLocal;
+        return block;
     }
 
-    private void analyseLetDeclStmt() throws CompileError {
+    private int analyseLetDeclStmt() throws CompileError {
         // let_decl_stmt -> 'let' IDENT ':' ty ('=' expr)? ';'
 
         expect(TokenType.LET_KW);
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
         Type type = analyseType();
         if (type == Type.void_ty)
             throw new Error("Illegal type");
 
         boolean isConstant = false, isInitialized = false, isArg = false;
-        String name = (String) nameToken.getValue();
-        SymbolEntry symbolEntry = addSymbol(name, isInitialized, isConstant, nameToken.getStartPos(), type, isArg);
-
-        if (peek().getTokenType() == TokenType.ASSIGN) {
-            if (symbolEntry.scope == 0) {
-                addInstruction(Operation.globa, symbolEntry.order);
-            } else if (symbolEntry.scope == 2) {
-                addInstruction(Operation.loca, symbolEntry.order);
-            }
+        int name = tokens.getId(nameToken);
+        SymbolEntry symbolEntry = addSymbol(name, isInitialized, isConstant, tokens.getStart(nameToken), type, isArg);
 
-            expect(TokenType.ASSIGN);
-            SymbolEntry exprSymbolEntry = analyseExpr();
-            Type exprType = exprSymbolEntry.getType();
+        int statement = -1;
+        if (nextIf(TokenType.ASSIGN)) {
+            int value = analyseExpr();
+            Type exprType = tree.getType(value);
             if (type != exprType)
                 throw new Error("Illegal declaration");
             symbolEntry.setInitialized(true);
-            addInstruction(Operation.store64);
+            statement = tree.addAssign(symbolEntry.scope, symbolEntry.order, value);
         }
 
         expect(TokenType.SEMICOLON);
+        return statement;
     }
 
-    private void analyseConstDeclStmt() throws CompileError {
+    private int analyseConstDeclStmt() throws CompileError {
         // const_decl_stmt -> 'const' IDENT ':' ty '=' expr ';'
 
         expect(TokenType.CONST_KW);
-        var nameToken = expect(TokenType.IDENT);
+        int nameToken = expect(TokenType.IDENT);
         expect(TokenType.COLON);
         Type type = analyseType();
         if (type == Type.void_ty)
             throw new Error("Illegal type");
 
         boolean isConstant = true, isInitialized = true, isArg = false;
-        String name = (String) nameToken.getValue();
-        SymbolEntry symbolEntry = addSymbol(name, isInitialized, isConstant, nameToken.getStartPos(), type, isArg);
-
-        if (symbolEntry.scope == 0) {
-            addInstruction(Operation.globa, symbolEntry.order);
-        } else if (symbolEntry.scope == 2) {
-            addInstruction(Operation.loca, symbolEntry.order);
-        }
+        int name = tokens.getId(nameToken);
+        SymbolEntry symbolEntry = addSymbol(name, isInitialized, isConstant, tokens.getStart(nameToken), type, isArg);
 
         expect(TokenType.ASSIGN);
-        SymbolEntry exprSymbolEntry = analyseExpr();
-        Type exprType = exprSymbolEntry.getType();
+        int value = analyseExpr();
+        Type exprType = tree.getType(value);
         if (type != exprType)
             throw new Error("Illegal declaration");
-        addInstruction(Operation.store64);
+        NodeKind valueKind = tree.getKind(value);
+        if (valueKind == NodeKind.INT || valueKind == NodeKind.DOUBLE) {
+            symbolEntry.hasConstant = true;
+            symbolEntry.constant = tree.getLong(value);
+        }
 
         expect(TokenType.SEMICOLON);
+        return tree.addAssign(symbolEntry.scope, symbolEntry.order, value);
     }
 
-    private void analyseIfStmt() throws CompileError {
+    private int analyseIfStmt() throws CompileError {
         // if_stmt -> 'if' expr block_stmt ('else' (block_stmt | if_stmt))?
 
         expect(TokenType.IF_KW);
-        analyseExpr();
-        Instruction br1 = addInstruction(Operation.brfalse, 0);
-        int offset1 = getInstructionOffset();
-
-        analyseBlockStmt();
-        Instruction br2 = addInstruction(Operation.br, 0);
-        int offset2 = getInstructionOffset();
-        br1.setX(offset2 - offset1);
-
-        if (nextIf(TokenType.ELSE_KW) != null) {
-            if (peek().getTokenType() == TokenType.L_BRACE) {
-                analyseBlockStmt();
-            } else if (peek().getTokenType() == TokenType.IF_KW) {
-                analyseIfStmt();
+        int condition = analyseExpr();
+        int thenBlock = analyseBlockStmt();
+        int elseBlock = -1;
+
+        if (nextIf(TokenType.ELSE_KW)) {
+            if (peek() == TokenType.L_BRACE) {
+                elseBlock = analyseBlockStmt();
+            } else if (peek() == TokenType.IF_KW) {
+                elseBlock = analyseIfStmt();
             } else {
                 throw new Error("If Statement not completed");
             }
         }
-        int offset3 = getInstructionOffset();
-        br2.setX(offset3 - offset2);
-
+        return tree.add(NodeKind.IF, Type.void_ty, condition, thenBlock, elseBlock);
     }
 
-    private void analyseWhileStmt() throws CompileError {
+    private int analyseWhileStmt() throws CompileError {
         // while_stmt -> 'while' expr block_stmt
 
-        this.levelStack.add(this.blockLevel);
-        this.blockLevel = ++maxLevel;
-
         expect(TokenType.WHILE_KW);
-        int offset1 = getInstructionOffset();
-
-        analyseExpr();
-        Instruction br1 = addInstruction(Operation.brfalse, 0);
-        int offset2 = getInstructionOffset();
-
-        analyseBlockStmt();
-        Instruction br2 = addInstruction(Operation.br, 0);
-        int offset3 = getInstructionOffset();
-        br2.setX(offset1 - offset3);
-        br1.setX(offset3 - offset2);
-
-        while (!blockStack.isEmpty()) {
-            if (blockStack.getLast().level == this.blockLevel) {
-                WhileBlock block = blockStack.getLast();
-                blockStack.removeLast();
-                if (block.type == 0) {
-                    block.instruction.setX(offset1 - block.offset);
-                } else {
-                    block.instruction.setX(offset3 - block.offset);
-                }
-            } else {
-                break;
-            }
-        }
+        int condition = analyseExpr();
+
+        loopDepth++;
+        int body = analyseBlockStmt();
+        loopDepth--;
 
-        this.blockLevel = levelStack.getLast();
-        levelStack.removeLast();
+        return tree.add(NodeKind.WHILE, Type.void_ty, condition, body, -1);
     }
 
-    private void analyseReturnStmt() throws CompileError {
+    private int analyseReturnStmt() throws CompileError {
         // return_stmt -> 'return' expr? ';'
 
-        SymbolEntry symbolEntry = null;
+        int value = -1;
         expect(TokenType.RETURN_KW);
-        if (nextIf(TokenType.SEMICOLON) == null) {
-            addInstruction(Operation.arga, 0);
-
-            symbolEntry = analyseExpr();
+        if (!nextIf(TokenType.SEMICOLON)) {
+            value = analyseExpr();
+            SymbolEntry symbolEntry = exprEntry;
             Type type = symbolEntry.getType();
             expect(TokenType.SEMICOLON);
 
@@ -550,45 +651,96 @@ public final class Analyser {
             } else if (functionTable.type != type) {
                 throw new Error("Return type not matched");
             }
-
-            addInstruction(Operation.store64);
         }
 
-        if (this.functionTable.type != Type.void_ty && symbolEntry == null){
+        if (this.functionTable.type != Type.void_ty && value == -1){
             throw new Error("Should not return void");
         }
-        addInstruction(Operation.ret);
+        return tree.add(NodeKind.RETURN, Type.void_ty, value, -1, -1);
     }
 
-    private void analyseContinueStmt() throws CompileError {
+    private int analyseContinueStmt() throws CompileError {
         expect(TokenType.CONTINUE_KW);
         expect(TokenType.SEMICOLON);
 
-        if (this.blockLevel != 0) {
-            Instruction instruction = addInstruction(Operation.br, 0);
-            int offset = getInstructionOffset();
-            WhileBlock block = new WhileBlock(instruction, offset, this.blockLevel, 0);
-            this.blockStack.add(block);
+        if (this.loopDepth != 0) {
+            return tree.add(NodeKind.CONTINUE, Type.void_ty, -1, -1, -1);
         } else {
             throw new Error("Invalid continue");
         }
     }
 
-    private void analyseBreakStmt() throws CompileError {
+    private int analyseBreakStmt() throws CompileError {
         expect(TokenType.BREAK_KW);
         expect(TokenType.SEMICOLON);
 
-        if (this.blockLevel != 0) {
-            Instruction instruction = addInstruction(Operation.br, 0);
-            int offset = getInstructionOffset();
-            WhileBlock block = new WhileBlock(instruction, offset, this.blockLevel, 1);
-            this.blockStack.add(block);
+        if (this.loopDepth != 0) {
+            return tree.add(NodeKind.BREAK, Type.void_ty, -1, -1, -1);
         } else {
             throw new Error("Invalid break");
         }
     }
 
-    private SymbolEntry analyseExpr() throws CompileError {
+    /**
+     * 二元运算符和赋值号的优先级，数值越大结合越紧，赋值为右结合，其余为左结合
+     * 不是二元运算符时返回 -1
+     */
+    private static int precedence(TokenType tt) {
+        switch (tt) {
+            case ASSIGN:
+                return 0;
+            case GT:
+            case LT:
+            case GE:
+            case LE:
+            case EQ:
+            case NEQ:
+                return 1;
+            case PLUS:
+            case MINUS:
+                return 2;
+            case MUL:
+            case DIV:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 二元运算符对应的节点种类
+     */
+    private static NodeKind nodeKind(TokenType tt) {
+        switch (tt) {
+            case GT:
+                return NodeKind.GT;
+            case LT:
+                return NodeKind.LT;
+            case GE:
+                return NodeKind.GE;
+            case LE:
+                return NodeKind.LE;
+            case EQ:
+                return NodeKind.EQ;
+            case NEQ:
+                return NodeKind.NEQ;
+            case PLUS:
+                return NodeKind.ADD;
+            case MINUS:
+                return NodeKind.SUB;
+            case MUL:
+                return NodeKind.MUL;
+            case DIV:
+                return NodeKind.DIV;
+            default:
+                throw new Error("Illegal operator");
+        }
+    }
+
+    /**
+     * 分析一个表达式，返回它的节点，表达式结果的符号存入 exprEntry
+     */
+    private int analyseExpr() throws CompileError {
         // expr -> operator_expr | negate_expr | assign_expr | as_expr
         //       | call_expr | literal_expr | ident_expr | group_expr
 
@@ -601,283 +753,292 @@ public final class Analyser {
         // ident_expr -> IDENT
         // group_expr -> '(' expr ')'
 
-        SymbolEntry lsymbolEntry = analyseExpr1();
-        Type ltype = lsymbolEntry.getType();
-        if (nextIf(TokenType.ASSIGN) != null) {
-            popInstruction();
-            SymbolEntry rsymbolEntry = analyseExpr();
-            Type rtype = rsymbolEntry.getType();
-
-            if (lsymbolEntry.def == 2) {
-                throw new Error("Invalid assignment");
-            } else if (lsymbolEntry.isConstant) {
-                throw new Error("Assign to constant");
-            } else if (!rsymbolEntry.isInitialized) {
-                throw new Error("Expression not initialized");
-            } else if (ltype != rtype) {
-                throw new Error("Assign to different type");
+        // 算符优先分析，括号和函数调用只在运算符栈中压一个标记，嵌套再深也不会递归
+        // 优先级从低到高：赋值、比较、加减、乘除、as、一元负号
+        // 一元负号只作用于紧随其后的初等表达式，as 在操作数结束后立即处理
+        ExprStack stack = exprStack;
+        stack.clear();
+        while (true) {
+            // 读一个操作数，左括号和有参数的函数调用只压栈，继续读下一个操作数
+            boolean isNeg = false;
+            while (nextIf(TokenType.MINUS)) {
+                isNeg = !isNeg;
             }
-
-            addInstruction(Operation.store64);
-            lsymbolEntry.setInitialized(true);
-            return new SymbolEntry(Type.void_ty);
-        }
-        return lsymbolEntry;
-    }
-
-    private SymbolEntry analyseExpr1() throws CompileError {
-        SymbolEntry symbolEntry = analyseExpr2();
-        Type ltype = symbolEntry.getType();
-        while (peek().getTokenType() == TokenType.GT || peek().getTokenType() == TokenType.LT || peek().getTokenType() == TokenType.GE
-            || peek().getTokenType() == TokenType.LE || peek().getTokenType() == TokenType.EQ || peek().getTokenType() == TokenType.NEQ) {
-            var operatorToken = next();
-            TokenType opt = operatorToken.getTokenType();
-            SymbolEntry rsymbolEntry = analyseExpr2();
-            Type rtype = rsymbolEntry.getType();
-
-//            if (!symbolEntry.isInitialized || !rsymbolEntry.isInitialized)
-//                throw new Error("Expression not initialized");
-            if (ltype != rtype)
-                throw new Error("Cannot compare different type");
-
-            if (ltype == Type.int_ty) {
-                addInstruction(Operation.cmpi);
-            } else if (ltype == Type.double_ty) {
-                addInstruction(Operation.cmpf);
+            TokenType tt = peek();
+            if (tt == TokenType.L_PAREN) {
+                next();
+                stack.pushOperator(TokenType.L_PAREN, isNeg, -1, null);
+                continue;
+            } else if (tt == TokenType.IDENT && peek(1) == TokenType.L_PAREN) {
+                int name = tokens.getId(next());
+                next();
+                FunctionTable callee = getFunction(name);
+                if (callee == null && !isStdlib(name))
+                    throw new Error("Illegal function call");
+                if (!nextIf(TokenType.R_PAREN)) {
+                    stack.pushOperator(TokenType.IDENT, isNeg, name, callee);
+                    continue;
+                }
+                int node = call(name, callee, -1);
+                stack.pushOperand(new SymbolEntry(tree.getType(node)), null, node);
             } else {
-                throw new Error("Illegal type for comparison");
+                analysePrimaryExpr();
             }
-            switch (opt) {
-                case GT:
-                    addInstruction(Operation.setgt);
-                    break;
-                case LT:
-                    addInstruction(Operation.setlt);
+            analyseNegAndAs(isNeg);
+
+            // 读运算符，遇到右括号或逗号时结束一层括号或一个参数
+            while (true) {
+                tt = peek();
+                int precedence = precedence(tt);
+                if (precedence > 0) {
+                    reduce(precedence);
+                    next();
+                    stack.pushOperator(tt);
                     break;
-                case GE:
-                    addInstruction(Operation.setlt);
-                    addInstruction(Operation.not);
+                } else if (precedence == 0) {
+                    reduce(1);
+                    next();
+                    stack.pushOperator(tt);
                     break;
-                case LE:
-                    addInstruction(Operation.setgt);
-                    addInstruction(Operation.not);
+                }
+
+                reduce(0);
+                TokenType context = stack.topOperator();
+                if (context == null) {
+                    int node = stack.topNode();
+                    exprEntry = stack.popOperand();
+                    return node;
+                }
+                if (context == TokenType.IDENT) {
+                    analyseCallParam(stack.topOperand());
+                    int arg = stack.topNode();
+                    stack.popOperand();
+                    stack.addArg(tree, arg);
+                    if (nextIf(TokenType.COMMA)) {
+                        break;
+                    }
+                }
+                expect(TokenType.R_PAREN);
+                int top = stack.operatorCount - 1;
+                boolean groupNeg = stack.negates[top];
+                if (context == TokenType.IDENT) {
+                    int node = call(stack.names[top], stack.callees[top], stack.firstArgs[top]);
+                    stack.popOperator();
+                    stack.pushOperand(new SymbolEntry(tree.getType(node)), null, node);
+                } else {
+                    stack.popOperator();
+                }
+                analyseNegAndAs(groupNeg);
+            }
+        }
+    }
+
+    /**
+     * 归约运算符栈顶所有优先级不低于 precedence 的运算符，遇到括号或函数调用标记时停止
+     */
+    private void reduce(int precedence) throws CompileError {
+        ExprStack stack = exprStack;
+        while (stack.operatorCount > 0 && precedence(stack.topOperator()) >= precedence) {
+            TokenType opt = stack.topOperator();
+            stack.popOperator();
+            Type compareType = stack.compareTypes[stack.operandCount - 2];
+            int rnode = stack.topNode();
+            SymbolEntry rsymbolEntry = stack.popOperand();
+            int lnode = stack.topNode();
+            SymbolEntry lsymbolEntry = stack.popOperand();
+            int node;
+            switch (precedence(opt)) {
+                case 0:
+                    node = analyseAssign(lsymbolEntry, lnode, rsymbolEntry, rnode);
                     break;
-                case EQ:
-                    addInstruction(Operation.not);
+                case 1:
+                    node = analyseCompare(opt, compareType, lnode, rsymbolEntry, rnode);
                     break;
-                case NEQ:
+                case 2:
+                    node = analyseAddSub(opt, lsymbolEntry, lnode, rsymbolEntry, rnode);
                     break;
                 default:
-                    throw new Error("Illegal operator");
+                    node = analyseMulDiv(opt, lsymbolEntry, lnode, rsymbolEntry, rnode);
+            }
+            if (!ConstantFolder.fold(tree, node)) {
+                AlgebraicSimplifier.simplify(tree, node);
             }
-            // 比较表达式的值不能继续使用
-            symbolEntry = new SymbolEntry(Type.void_ty);
+            // 表达式变为临时变量
+            // 比较表达式的值不能继续使用，但继续比较时仍按最左边操作数的类型检查
+            Type type = tree.getType(node);
+            stack.pushOperand(new SymbolEntry(type), precedence(opt) == 1 ? compareType : type, node);
         }
-        return symbolEntry;
     }
 
-    private SymbolEntry analyseExpr2() throws CompileError {
-        SymbolEntry symbolEntry = analyseExpr3();
-        Type ltype = symbolEntry.getType();
-        while (peek().getTokenType() == TokenType.PLUS || peek().getTokenType() == TokenType.MINUS) {
-            var operatorToken = next();
-            TokenType opt = operatorToken.getTokenType();
-            SymbolEntry rsymbolEntry = analyseExpr3();
-            Type rtype = rsymbolEntry.getType();
+    private int analyseAssign(SymbolEntry lsymbolEntry, int lnode, SymbolEntry rsymbolEntry, int rnode) {
+        Type ltype = lsymbolEntry.getType();
+        Type rtype = rsymbolEntry.getType();
+
+        if (lsymbolEntry.def == 2) {
+            throw new Error("Invalid assignment");
+        } else if (lsymbolEntry.isConstant) {
+            throw new Error("Assign to constant");
+        } else if (tree.getKind(lnode) != NodeKind.LOAD) {
+            // 只能给变量本身赋值，取负后的变量也不行
+            throw new Error("Invalid assignment");
+        } else if (!rsymbolEntry.isInitialized) {
+            throw new Error("Expression not initialized");
+        } else if (ltype != rtype) {
+            throw new Error("Assign to different type");
+        }
 
-            if (!symbolEntry.isInitialized && symbolEntry.scope != 0 || !rsymbolEntry.isInitialized && rsymbolEntry.scope != 0)
-                throw new Error("Expression not initialized");
-            else if (ltype != rtype)
-                throw new Error("Cannot compare different type");
-
-            if (opt == TokenType.PLUS && ltype == Type.int_ty) {
-                addInstruction(Operation.addi);
-            } else if (opt == TokenType.PLUS && ltype == Type.double_ty) {
-                addInstruction(Operation.addf);
-            } else if (opt == TokenType.MINUS && ltype == Type.int_ty) {
-                addInstruction(Operation.subi);
-            } else if (opt == TokenType.MINUS && ltype == Type.double_ty) {
-                addInstruction(Operation.subf);
-            } else {
-                throw new Error("Illegal operation");
-            }
-            // 表达式变为临时变量
-            symbolEntry = new SymbolEntry(ltype);
+        lsymbolEntry.setInitialized(true);
+        return tree.addAssign(lsymbolEntry.scope, lsymbolEntry.order, rnode);
+    }
+
+    private int analyseCompare(TokenType opt, Type ltype, int lnode, SymbolEntry rsymbolEntry, int rnode) {
+        Type rtype = rsymbolEntry.getType();
+
+//            if (!symbolEntry.isInitialized || !rsymbolEntry.isInitialized)
+//                throw new Error("Expression not initialized");
+        if (ltype != rtype)
+            throw new Error("Cannot compare different type");
+
+        if (ltype != Type.int_ty && ltype != Type.double_ty) {
+            throw new Error("Illegal type for comparison");
         }
-        return symbolEntry;
+        return tree.addCompare(nodeKind(opt), ltype, lnode, rnode);
     }
 
-    private SymbolEntry analyseExpr3() throws CompileError {
-        SymbolEntry symbolEntry = analyseExpr4();
+    private int analyseAddSub(TokenType opt, SymbolEntry symbolEntry, int lnode, SymbolEntry rsymbolEntry, int rnode) {
         Type ltype = symbolEntry.getType();
-        while (peek().getTokenType() == TokenType.MUL || peek().getTokenType() == TokenType.DIV) {
-            var operatorToken = next();
-            TokenType opt = operatorToken.getTokenType();
-            SymbolEntry rsymbolEntry = analyseExpr4();
-            Type rtype = rsymbolEntry.getType();
+        Type rtype = rsymbolEntry.getType();
 
-            if (!symbolEntry.isInitialized || !rsymbolEntry.isInitialized)
-                throw new Error("Expression not initialized");
-            else if (ltype != rtype)
-                throw new Error("Cannot compare different type");
-
-            if (opt == TokenType.MUL && ltype == Type.int_ty) {
-                addInstruction(Operation.muli);
-            } else if (opt == TokenType.MUL && ltype == Type.double_ty) {
-                addInstruction(Operation.mulf);
-            } else if (opt == TokenType.DIV && ltype == Type.int_ty) {
-                addInstruction(Operation.divi);
-            } else if (opt == TokenType.DIV && ltype == Type.double_ty) {
-                addInstruction(Operation.divf);
-            } else {
-                throw new Error("Illegal operation");
-            }
-            // 表达式变为临时变量
-            symbolEntry = new SymbolEntry(ltype);
+        if (!symbolEntry.isInitialized && symbolEntry.scope != 0 || !rsymbolEntry.isInitialized && rsymbolEntry.scope != 0)
+            throw new Error("Expression not initialized");
+        else if (ltype != rtype)
+            throw new Error("Cannot compare different type");
+
+        if (ltype != Type.int_ty && ltype != Type.double_ty) {
+            throw new Error("Illegal operation");
         }
-        return symbolEntry;
+        return tree.add(nodeKind(opt), ltype, lnode, rnode, -1);
     }
 
-    private SymbolEntry analyseExpr4() throws CompileError {
-        SymbolEntry symbolEntry = analyseExpr5();
-        while (nextIf(TokenType.AS_KW) != null) {
-            Type newType = analyseType();
+    private int analyseMulDiv(TokenType opt, SymbolEntry symbolEntry, int lnode, SymbolEntry rsymbolEntry, int rnode) {
+        Type ltype = symbolEntry.getType();
+        Type rtype = rsymbolEntry.getType();
 
-            if (!symbolEntry.isInitialized)
-                throw new Error("Expression not initialized");
+        if (!symbolEntry.isInitialized || !rsymbolEntry.isInitialized)
+            throw new Error("Expression not initialized");
+        else if (ltype != rtype)
+            throw new Error("Cannot compare different type");
 
-            if (newType == Type.void_ty) {
-                throw new Error("Illegal type transition");
-            } else if (symbolEntry.type == Type.int_ty && newType == Type.double_ty) {
-                addInstruction(Operation.itof);
-            } else if (symbolEntry.type == Type.double_ty && newType == Type.int_ty) {
-                addInstruction(Operation.ftoi);
-            }
-            symbolEntry = new SymbolEntry(newType);
+        if (ltype != Type.int_ty && ltype != Type.double_ty) {
+            throw new Error("Illegal operation");
         }
-        return symbolEntry;
+        return tree.add(nodeKind(opt), ltype, lnode, rnode, -1);
     }
 
-    private SymbolEntry analyseExpr5() throws CompileError {
-        boolean isNeg = false;
-        while (nextIf(TokenType.MINUS) != null) {
-            isNeg = !isNeg;
-        }
-        SymbolEntry symbolEntry = analyseExpr6();
+    /**
+     * 对操作数栈顶刚结束的初等表达式应用前面的一元负号和后面的 as
+     */
+    private void analyseNegAndAs(boolean isNeg) throws CompileError {
+        ExprStack stack = exprStack;
+        SymbolEntry symbolEntry = stack.topOperand();
+        int node = stack.topNode();
         Type type = symbolEntry.getType();
         if (isNeg) {
             if (!symbolEntry.isInitialized)
                 throw new Error("Expression not initialized");
-            if (type == Type.int_ty) {
-                addInstruction(Operation.negi);
-            } else if (type == Type.double_ty) {
-                addInstruction(Operation.negf);
-            } else {
+            if (type != Type.int_ty && type != Type.double_ty) {
                 throw new Error("Illegal expr");
             }
+            node = tree.add(NodeKind.NEG, type, node, -1, -1);
+            if (!ConstantFolder.fold(tree, node)) {
+                AlgebraicSimplifier.simplify(tree, node);
+            }
         }
-        return symbolEntry;
-    }
+        while (nextIf(TokenType.AS_KW)) {
+            Type newType = analyseType();
+
+            if (!symbolEntry.isInitialized)
+                throw new Error("Expression not initialized");
 
-    private SymbolEntry analyseExpr6() throws CompileError {
-        TokenType tt = peek().getTokenType();
-        SymbolEntry symbolEntry = null;
-        // group expr
-        if (nextIf(TokenType.L_PAREN) != null) {
-            symbolEntry = analyseExpr();
-            expect(TokenType.R_PAREN);
+            if (newType == Type.void_ty) {
+                throw new Error("Illegal type transition");
+            }
+            node = tree.add(NodeKind.CAST, newType, node, -1, -1);
+            ConstantFolder.fold(tree, node);
+            symbolEntry = new SymbolEntry(newType);
         }
+        stack.operands[stack.operandCount - 1] = symbolEntry;
+        stack.compareTypes[stack.operandCount - 1] = symbolEntry.getType();
+        stack.nodes[stack.operandCount - 1] = node;
+    }
+
+    /**
+     * 字面量和变量，结果压入操作数栈
+     */
+    private void analysePrimaryExpr() throws CompileError {
+        TokenType tt = peek();
         // literal expr
-        else if (tt == TokenType.UINT_LITERAL || tt == TokenType.CHAR_LITERAL || tt == TokenType.STRING_LITERAL || tt == TokenType.DOUBLE_LITERAL) {
-            symbolEntry = analyseLiteral();
+        if (tt == TokenType.UINT_LITERAL || tt == TokenType.CHAR_LITERAL || tt == TokenType.STRING_LITERAL || tt == TokenType.DOUBLE_LITERAL) {
+            int node = analyseLiteral();
+            exprStack.pushOperand(new SymbolEntry(tree.getType(node)), null, node);
         }
-        // call & ident expr
+        // ident expr
         else if (tt == TokenType.IDENT) {
-            var nameToken = next();
-            String name = (String) nameToken.getValue();
-            // call expr
-            if (nextIf(TokenType.L_PAREN) != null) {
-                if (functionTables.get(name) == null && !isStdlib(name))
-                    throw new Error("Illegal function call");
-                // call function
-                else if (!isStdlib(name)) {
-                    if (functionTables.get(name).type != Type.void_ty) {
-                        addInstruction(Operation.stackalloc, 1);
-                    }
-                    if (nextIf(TokenType.R_PAREN) == null) {
-                        analyseCallParamList();
-                        expect(TokenType.R_PAREN);
-                    }
-                    addInstruction(Operation.callname, functionTables.get(name).order);
-                    symbolEntry = new SymbolEntry(functionTables.get(name).type);
-                }
-                // call stdlib
-                else {
-                    if (nextIf(TokenType.R_PAREN) == null) {
-                        analyseCallParamList();
-                        expect(TokenType.R_PAREN);
-                    }
-                    Type type = callStdlib(name);
-                    symbolEntry = new SymbolEntry(type);
-                }
+            int name = tokens.getId(next());
+            SymbolEntry symbolEntry = getSymbolEntry(name);
+            if (symbolEntry == null) {
+                throw new Error("Undefined param");
             }
-            // ident expr
-            else {
-                symbolEntry = getSymbolEntry(name);
-                if (symbolEntry == null) {
-                    throw new Error("Undefined param");
-                } else if (symbolEntry.scope == 0) {
-                    addInstruction(Operation.globa, symbolEntry.order);
-                } else if (symbolEntry.scope == 1) {
-                    int offset = 0;
-                    if (functionTable.type != Type.void_ty)
-                        offset = 1;
-                    addInstruction(Operation.arga, symbolEntry.order + offset);
-                } else if (symbolEntry.scope == 2) {
-                    addInstruction(Operation.loca, symbolEntry.order);
-                }
-                addInstruction(Operation.load64);
+            int node;
+            if (symbolEntry.hasConstant) {
+                // 常量传播
+                node = symbolEntry.type == Type.int_ty ? tree.addInt(symbolEntry.constant)
+                        : tree.addDouble(Double.longBitsToDouble(symbolEntry.constant));
+            } else {
+                node = tree.addLoad(symbolEntry.scope, symbolEntry.order, symbolEntry.getType());
             }
+            exprStack.pushOperand(symbolEntry, null, node);
         }
         // error
         else {
             throw new Error("Illegal Expression");
         }
+    }
 
-        return symbolEntry;
+    /**
+     * 参数已经全部分析完，生成调用节点
+     */
+    private int call(int name, FunctionTable callee, int firstArg) {
+        // call function
+        if (!isStdlib(name)) {
+            return tree.add(NodeKind.CALL, callee.type, callee.order, firstArg, -1);
+        }
+        // call stdlib
+        else {
+            Operation operation = stdlib[name];
+            return tree.addStdlib(operation, stdlibType(operation), firstArg);
+        }
     }
 
-    private SymbolEntry analyseLiteral() throws CompileError {
-        var nameToken = next();
-        TokenType tt = nameToken.getTokenType();
+    private int analyseLiteral() throws CompileError {
+        int nameToken = next();
+        TokenType tt = tokens.getType(nameToken);
         switch (tt) {
             case UINT_LITERAL:
             case CHAR_LITERAL:
-                addInstruction(Operation.push, (long) nameToken.getValue());
-                return new SymbolEntry(Type.int_ty);
+                return tree.addInt(tokens.getLong(nameToken));
             case STRING_LITERAL:
-                SymbolEntry symbol = addString((String) nameToken.getValue());
-                int order = symbol.order;
-                addInstruction(Operation.push, (long) order);
-                return new SymbolEntry(Type.string_ty);
+                SymbolEntry symbol = addString(tokens.getId(nameToken));
+                return tree.addString(symbol.order);
             case DOUBLE_LITERAL:
-                addInstruction(Operation.push, (Double) nameToken.getValue());
-                return new SymbolEntry(Type.double_ty);
+                return tree.addDouble(tokens.getDouble(nameToken));
             default:
                 throw new Error("Illegal literal");
         }
     }
 
-    private void analyseCallParamList() throws CompileError {
+    private void analyseCallParam(SymbolEntry symbolEntry) {
         // call_param_list -> expr (',' expr)*
-        analyseCallParam();
-        while (nextIf(TokenType.COMMA) != null) {
-            analyseCallParam();
-        }
-    }
-
-    private void analyseCallParam() throws CompileError {
-        SymbolEntry symbolEntry = analyseExpr();
         if (!symbolEntry.isInitialized) {
             throw new Error("Expr not initialized");
         }
@@ -887,58 +1048,41 @@ public final class Analyser {
         // ty -> IDENT
         // IDENT:void/int(/double)
 
-        Token token = expect(TokenType.IDENT);
-        String value = (String) token.getValue();
-        if (value.equals("void"))
+        int token = expect(TokenType.IDENT);
+        int value = tokens.getId(token);
+        if (value == voidName)
             return Type.void_ty;
-        else if (value.equals("int"))
+        else if (value == intName)
             return Type.int_ty;
-        else if (value.equals("double"))
+        else if (value == doubleName)
             return Type.double_ty;
         else
             throw new Error("Type illegal");
     }
 
     private boolean isExpr() throws CompileError {
-        TokenType tt = peek().getTokenType();
+        TokenType tt = peek();
         return tt == TokenType.MINUS  || tt == TokenType.IDENT || tt == TokenType.L_PAREN ||
                 tt == TokenType.UINT_LITERAL || tt == TokenType.DOUBLE_LITERAL ||
                 tt == TokenType.STRING_LITERAL || tt == TokenType.CHAR_LITERAL;
     }
 
-    private boolean isStdlib(String name) {
-        return name.equals("getint") || name.equals("getdouble") || name.equals("getchar") ||
-                name.equals("putint") || name.equals("putdouble") || name.equals("putchar") ||
-                name.equals("putstr") || name.equals("putln");
+    private boolean isStdlib(int name) {
+        return name < stdlib.length && stdlib[name] != null;
     }
 
-    private Type callStdlib(String name) {
-        if (name.equals("getint")) {
-            addInstruction(Operation.scani);
-            return Type.int_ty;
-        } else if (name.equals("getdouble")) {
-            addInstruction(Operation.scanf);
-            return Type.double_ty;
-        } else if (name.equals("getchar")) {
-            addInstruction(Operation.scanc);
-            return Type.int_ty;
-        } else if (name.equals("putint")) {
-            addInstruction(Operation.printi);
-            return Type.void_ty;
-        } else if (name.equals("putdouble")) {
-            addInstruction(Operation.printf);
-            return Type.void_ty;
-        } else if (name.equals("putchar")) {
-            addInstruction(Operation.printc);
-            return Type.void_ty;
-        } else if (name.equals("putln")) {
-            addInstruction(Operation.println);
-            return Type.void_ty;
-        } else if (name.equals("putstr")) {
-            addInstruction(Operation.prints);
-            return Type.void_ty;
-        } else {
-            return Type.void_ty;
+    /**
+     * 标准库函数的返回值类型
+     */
+    private static Type stdlibType(Operation operation) {
+        switch (operation) {
+            case scani:
+            case scanc:
+                return Type.int_ty;
+            case scanf:
+                return Type.double_ty;
+            default:
+                return Type.void_ty;
         }
     }
-}
\ No newline at end of file
+}
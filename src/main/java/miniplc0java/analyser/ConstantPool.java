@@ -0,0 +1,59 @@
+package miniplc0java.analyser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 全局变量区
+ * 全局变量和字符串常量（字符串字面量、函数名）共用一套序号，序号即对应的 GlobalDef 在输出中的位置
+ * 字符串常量按内容去重，同样的字符串无论出现多少次、是字面量还是函数名，都只占一个位置
+ */
+public class ConstantPool {
+    // 按序号排列
+    List<SymbolEntry> globals = new ArrayList<>();
+    // 字符串内容 -> 字符串常量
+    Map<String, SymbolEntry> strings = new HashMap<>();
+
+    /**
+     * 添加全局变量，设置并返回它的序号
+     */
+    public int addVariable(SymbolEntry symbolEntry) {
+        symbolEntry.order = globals.size();
+        globals.add(symbolEntry);
+        return symbolEntry.order;
+    }
+
+    /**
+     * 添加字符串常量，已有同样内容的字符串时直接返回它
+     */
+    public SymbolEntry addString(String value) {
+        SymbolEntry symbolEntry = strings.get(value);
+        if (symbolEntry == null) {
+            symbolEntry = new SymbolEntry(true, true, 1, Type.string_ty, 0, globals.size());
+            symbolEntry.value = value;
+            globals.add(symbolEntry);
+            strings.put(value, symbolEntry);
+        }
+        return symbolEntry;
+    }
+
+    public List<SymbolEntry> getGlobals() {
+        return globals;
+    }
+
+    public int size() {
+        return globals.size();
+    }
+
+    /**
+     * 只保留满足条件的全局变量和字符串常量，用于分析结束后删除用不到的部分
+     * 剩下的仍按原来的顺序排列，序号由调用者重新设置
+     */
+    public void retain(Predicate<SymbolEntry> predicate) {
+        globals.removeIf(symbolEntry -> !predicate.test(symbolEntry));
+        strings.values().removeIf(symbolEntry -> !predicate.test(symbolEntry));
+    }
+}
@@ -0,0 +1,108 @@
+package miniplc0java.analyser;
+
+import miniplc0java.ir.Tree;
+import miniplc0java.tokenizer.TokenType;
+
+import java.util.Arrays;
+
+/**
+ * 表达式分析用的操作数栈和运算符栈
+ * 操作数栈中是每个操作数的符号和中间表示节点
+ * 运算符栈中除了二元运算符和赋值号，还有左括号（L_PAREN）和函数调用（IDENT）两种标记，
+ * 标记记录了它前面的一元负号，函数调用标记还记录了被调用的函数和已经分析完的参数
+ */
+class ExprStack {
+    SymbolEntry[] operands = new SymbolEntry[16];
+    // 操作数作为比较运算左侧时的类型，连续比较时一直是比较链最左边操作数的类型
+    Type[] compareTypes = new Type[16];
+    int[] nodes = new int[16];
+    int operandCount = 0;
+
+    TokenType[] operators = new TokenType[16];
+    boolean[] negates = new boolean[16];
+    int[] names = new int[16];
+    FunctionTable[] callees = new FunctionTable[16];
+    // 参数链表的首尾节点
+    int[] firstArgs = new int[16];
+    int[] lastArgs = new int[16];
+    int operatorCount = 0;
+
+    void clear() {
+        Arrays.fill(operands, 0, operandCount, null);
+        Arrays.fill(callees, 0, operatorCount, null);
+        operandCount = 0;
+        operatorCount = 0;
+    }
+
+    void pushOperand(SymbolEntry symbolEntry, Type compareType, int node) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+            compareTypes = Arrays.copyOf(compareTypes, operandCount * 2);
+            nodes = Arrays.copyOf(nodes, operandCount * 2);
+        }
+        operands[operandCount] = symbolEntry;
+        compareTypes[operandCount] = compareType;
+        nodes[operandCount] = node;
+        operandCount++;
+    }
+
+    SymbolEntry popOperand() {
+        SymbolEntry symbolEntry = operands[--operandCount];
+        operands[operandCount] = null;
+        return symbolEntry;
+    }
+
+    SymbolEntry topOperand() {
+        return operands[operandCount - 1];
+    }
+
+    int topNode() {
+        return nodes[operandCount - 1];
+    }
+
+    void pushOperator(TokenType operator) {
+        pushOperator(operator, false, -1, null);
+    }
+
+    void pushOperator(TokenType operator, boolean negate, int name, FunctionTable callee) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            negates = Arrays.copyOf(negates, operatorCount * 2);
+            names = Arrays.copyOf(names, operatorCount * 2);
+            callees = Arrays.copyOf(callees, operatorCount * 2);
+            firstArgs = Arrays.copyOf(firstArgs, operatorCount * 2);
+            lastArgs = Arrays.copyOf(lastArgs, operatorCount * 2);
+        }
+        operators[operatorCount] = operator;
+        negates[operatorCount] = negate;
+        names[operatorCount] = name;
+        callees[operatorCount] = callee;
+        firstArgs[operatorCount] = -1;
+        lastArgs[operatorCount] = -1;
+        operatorCount++;
+    }
+
+    /**
+     * 把 node 添加到栈顶函数调用标记的参数链表末尾
+     */
+    void addArg(Tree tree, int node) {
+        int top = operatorCount - 1;
+        if (firstArgs[top] == -1) {
+            firstArgs[top] = node;
+        } else {
+            tree.setNext(lastArgs[top], node);
+        }
+        lastArgs[top] = node;
+    }
+
+    /**
+     * 栈顶运算符，栈空时返回 null
+     */
+    TokenType topOperator() {
+        return operatorCount == 0 ? null : operators[operatorCount - 1];
+    }
+
+    void popOperator() {
+        callees[--operatorCount] = null;
+    }
+}
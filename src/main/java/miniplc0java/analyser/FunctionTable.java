@@ -32,6 +32,10 @@ public class FunctionTable {
         return order;
     }
 
+    public void setOrder(int order) {
+        this.order = order;
+    }
+
     public Type getType() {
         return type;
     }
@@ -40,6 +44,10 @@ public class FunctionTable {
         return locals;
     }
 
+    public void setLocals(int locals) {
+        this.locals = locals;
+    }
+
     public int getArgs() {
         return args;
     }
@@ -7,6 +7,17 @@ public class SymbolEntry {
     Type type;
     int scope; //0全局，1参数，2局部
     int order;
+    // 名字在字符串池中的 id
+    int name;
+    // 字符串常量的内容，只有全局表中的字符串才有
+    String value;
+    // 初值折叠为常量的 const 符号，读取时直接使用这个值（double 为原始位），不必再从变量中加载
+    boolean hasConstant;
+    long constant;
+    // 所在符号表、在表中的位置，以及被本符号遮蔽的外层同名符号
+    SymbolTable table;
+    int position;
+    SymbolEntry shadowed;
 
     public SymbolEntry(boolean isConstant, boolean isDeclared, int def, Type type, int scope, int order) {
         this.isConstant = isConstant;
@@ -29,10 +40,18 @@ public class SymbolEntry {
         return order;
     }
 
+    public void setOrder(int order) {
+        this.order = order;
+    }
+
     public Type getType() {
         return type;
     }
 
+    public String getValue() {
+        return value;
+    }
+
     /**
      * @return the isConstant
      */
@@ -1,50 +1,110 @@
 package miniplc0java.analyser;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * 按字符串池 id 索引的作用域符号表
+ * 整条作用域链共用一个 visible 数组，保存每个 id 当前可见的符号，
+ * 内层声明遮蔽外层时把外层符号挂在 shadowed 上，退出作用域时恢复，因此查找只是一次数组下标访问
+ */
 public class SymbolTable {
     public SymbolTable upperTable;
-    HashMap<String, SymbolEntry> symbolMap;
+    // 本层按声明顺序排列的符号
+    List<SymbolEntry> symbolList;
+    // 整条作用域链共用，只有最外层持有
+    SymbolEntry[] visible;
+    SymbolTable root;
+    // 嵌套深度，最外层为 0
+    int depth;
 
     public SymbolTable() {
         this.upperTable = null;
-        this.symbolMap = new LinkedHashMap<>();
+        this.symbolList = new ArrayList<>();
+        this.visible = new SymbolEntry[256];
+        this.root = this;
+        this.depth = 0;
     }
 
     public SymbolTable(SymbolTable upperTable) {
         this.upperTable = upperTable;
-        this.symbolMap = new LinkedHashMap<>();
+        this.symbolList = new ArrayList<>();
+        this.root = upperTable.root;
+        this.depth = upperTable.depth + 1;
     }
 
-    public HashMap<String, SymbolEntry> getSymbolMap() {
-        return symbolMap;
+    public List<SymbolEntry> getSymbolList() {
+        return symbolList;
     }
 
-    public void put(String name, SymbolEntry symbolEntry) {
-        symbolMap.put(name, symbolEntry);
+    /**
+     * 在本层声明 name，本层已有同名符号时替换它
+     * 本层不一定是最内层（例如在函数中向全局表添加字符串），此时插入到遮蔽链的对应位置
+     */
+    public void put(int name, SymbolEntry symbolEntry) {
+        if (name >= root.visible.length) {
+            root.visible = Arrays.copyOf(root.visible, Math.max(name + 1, root.visible.length * 2));
+        }
+        SymbolEntry inner = null;
+        SymbolEntry current = root.visible[name];
+        while (current != null && current.table.depth > depth) {
+            inner = current;
+            current = current.shadowed;
+        }
+        symbolEntry.name = name;
+        symbolEntry.table = this;
+        if (current != null && current.table == this) {
+            symbolEntry.shadowed = current.shadowed;
+            symbolEntry.position = current.position;
+            symbolList.set(current.position, symbolEntry);
+        } else {
+            symbolEntry.shadowed = current;
+            symbolEntry.position = symbolList.size();
+            symbolList.add(symbolEntry);
+        }
+        if (inner == null) {
+            root.visible[name] = symbolEntry;
+        } else {
+            inner.shadowed = symbolEntry;
+        }
     }
 
-    public void putAllArgs(HashMap<String, SymbolEntry> map) {
-        symbolMap.putAll(map);
+    public void putAllArgs(List<SymbolEntry> args) {
+        for (SymbolEntry symbolEntry : args) {
+            put(symbolEntry.name, symbolEntry);
+        }
     }
 
-    public SymbolEntry get(String name) {
-        SymbolEntry symbolEntry;
-        SymbolTable symbolTable = this;
-        while ((symbolEntry = symbolTable.symbolMap.get(name)) == null) {
-            symbolTable = symbolTable.upperTable;
-            if (symbolTable == null)
-                break;
+    public SymbolEntry get(int name) {
+        if (name >= root.visible.length) {
+            return null;
         }
-        return symbolEntry;
+        return root.visible[name];
     }
 
-    public SymbolEntry getCurrent(String name) {
-        return symbolMap.get(name);
+    public SymbolEntry getCurrent(int name) {
+        SymbolEntry symbolEntry = get(name);
+        if (symbolEntry != null && symbolEntry.table == this) {
+            return symbolEntry;
+        }
+        return null;
+    }
+
+    /**
+     * 退出本层作用域，恢复被遮蔽的外层符号
+     *
+     * @return 外层符号表
+     */
+    public SymbolTable close() {
+        for (int i = symbolList.size() - 1; i >= 0; i--) {
+            SymbolEntry symbolEntry = symbolList.get(i);
+            root.visible[symbolEntry.name] = symbolEntry.shadowed;
+        }
+        return upperTable;
     }
 
     public int size() {
-        return symbolMap.size();
+        return symbolList.size();
     }
 }
@@ -1,5 +1,6 @@
 package miniplc0java.error;
 
+import miniplc0java.util.LineTable;
 import miniplc0java.util.Pos;
 
 public class AnalyzeError extends CompileError {
@@ -7,6 +8,8 @@ public class AnalyzeError extends CompileError {
 
     ErrorCode code;
     Pos pos;
+    int offset;
+    LineTable lineTable;
 
     @Override
     public ErrorCode getErr() {
@@ -15,6 +18,9 @@ public class AnalyzeError extends CompileError {
 
     @Override
     public Pos getPos() {
+        if (pos == null) {
+            pos = lineTable.toPos(offset);
+        }
         return pos;
     }
 
@@ -28,8 +34,19 @@ public class AnalyzeError extends CompileError {
         this.pos = pos;
     }
 
+    /**
+     * @param code
+     * @param offset    出错 token 在源文件中的偏移
+     * @param lineTable 用于在报错时换算行列号
+     */
+    public AnalyzeError(ErrorCode code, int offset, LineTable lineTable) {
+        this.code = code;
+        this.offset = offset;
+        this.lineTable = lineTable;
+    }
+
     @Override
     public String toString() {
-        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Analyze Error: ").append(code).append(", at: ").append(getPos()).toString();
     }
 }
@@ -5,6 +5,7 @@ import java.util.List;
 
 import miniplc0java.tokenizer.Token;
 import miniplc0java.tokenizer.TokenType;
+import miniplc0java.util.LineTable;
 import miniplc0java.util.Pos;
 
 public class ExpectedTokenError extends CompileError {
@@ -12,6 +13,7 @@ public class ExpectedTokenError extends CompileError {
 
     List<TokenType> expecTokenType;
     Token token;
+    LineTable lineTable;
 
     @Override
     public ErrorCode getErr() {
@@ -20,35 +22,35 @@ public class ExpectedTokenError extends CompileError {
 
     @Override
     public Pos getPos() {
-        return token.getStartPos();
+        return lineTable.toPos(token.getStartOffset());
     }
 
     /**
      * @param expectedTokenType
      * @param token
-     * @param code
-     * @param pos
+     * @param lineTable
      */
-    public ExpectedTokenError(TokenType expectedTokenType, Token token) {
+    public ExpectedTokenError(TokenType expectedTokenType, Token token, LineTable lineTable) {
         this.expecTokenType = new ArrayList<>();
         this.expecTokenType.add(expectedTokenType);
         this.token = token;
+        this.lineTable = lineTable;
     }
 
     /**
      * @param expectedTokenType
      * @param token
-     * @param code
-     * @param pos
+     * @param lineTable
      */
-    public ExpectedTokenError(List<TokenType> expectedTokenType, Token token) {
+    public ExpectedTokenError(List<TokenType> expectedTokenType, Token token, LineTable lineTable) {
         this.expecTokenType = expectedTokenType;
         this.token = token;
+        this.lineTable = lineTable;
     }
 
     @Override
     public String toString() {
         return new StringBuilder().append("Analyse error. Expected ").append(expecTokenType).append(" at ")
-                .append(token.getStartPos()).append("got: ").append(token.toStringAlt()).toString();
+                .append(getPos()).append("got: ").append(token.toStringAlt()).toString();
     }
 }
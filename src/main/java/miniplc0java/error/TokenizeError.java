@@ -1,5 +1,6 @@
 package miniplc0java.error;
 
+import miniplc0java.util.LineTable;
 import miniplc0java.util.Pos;
 
 public class TokenizeError extends CompileError {
@@ -8,6 +9,8 @@ public class TokenizeError extends CompileError {
 
     private ErrorCode err;
     private Pos pos;
+    private int offset;
+    private LineTable lineTable;
 
     public TokenizeError(ErrorCode err, Pos pos) {
         super();
@@ -21,16 +24,29 @@ public class TokenizeError extends CompileError {
         this.pos = new Pos(row, col);
     }
 
+    /**
+     * 行号和列号在 getPos 时才由行首偏移表换算
+     */
+    public TokenizeError(ErrorCode err, int offset, LineTable lineTable) {
+        super();
+        this.err = err;
+        this.offset = offset;
+        this.lineTable = lineTable;
+    }
+
     public ErrorCode getErr() {
         return err;
     }
 
     public Pos getPos() {
+        if (pos == null) {
+            pos = lineTable.toPos(offset);
+        }
         return pos;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(pos).toString();
+        return new StringBuilder().append("Tokenize Error: ").append(err).append(", at: ").append(getPos()).toString();
     }
 }
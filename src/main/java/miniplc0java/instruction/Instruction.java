@@ -5,6 +5,8 @@ import java.util.Objects;
 public class Instruction {
     private Operation opt;
     Object x;
+    // push 的参数是字符串常量在全局变量表中的序号，而不是整数，删除或重排全局变量时要随之修改
+    private boolean isString;
 
     public Instruction(Operation opt) {
         this.opt = opt;
@@ -26,6 +28,25 @@ public class Instruction {
         this.x = x;
     }
 
+    /**
+     * 压入字符串常量的 push
+     */
+    public static Instruction pushString(long order) {
+        Instruction instruction = new Instruction(Operation.push, order);
+        instruction.isString = true;
+        return instruction;
+    }
+
+    /**
+     * 复制一条指令，同一个 Instruction 对象不能在指令序列中出现两次
+     */
+    public Instruction copy() {
+        Instruction instruction = new Instruction(opt);
+        instruction.x = x;
+        instruction.isString = isString;
+        return instruction;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -33,7 +54,7 @@ public class Instruction {
         if (o == null || getClass() != o.getClass())
             return false;
         Instruction that = (Instruction) o;
-        return opt == that.opt && Objects.equals(x, that.x);
+        return opt == that.opt && isString == that.isString && Objects.equals(x, that.x);
     }
 
     @Override
@@ -49,6 +70,10 @@ public class Instruction {
         return x;
     }
 
+    public boolean isString() {
+        return isString;
+    }
+
     public void setOpt(Operation opt) {
         this.opt = opt;
     }
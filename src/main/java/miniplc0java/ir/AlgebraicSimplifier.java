@@ -0,0 +1,167 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.Type;
+
+import java.util.Arrays;
+
+/**
+ * 代数化简
+ * 一个操作数为特定常量的运算原地改为更简单的节点，节点类型不变，结果与原来的运算完全相同：
+ * 整数按 Java long 的回绕语义
+ * x + 0、0 + x、x - 0、x * 1、1 * x、x / 1 -> x
+ * 0 - x、x * -1、-1 * x、x / -1 -> -x，Long.MIN_VALUE 取负与除以 -1 都得到它自己
+ * x * 0、0 * x -> 0，x 中有调用或除数不是非零常量的整数除法时不化简，调用的副作用和除以 0 的 panic 要保留
+ * x * 2^k、2^k * x -> x << k
+ * -(-x) -> x
+ * 浮点数只化简对所有值（包括 -0.0 和 NaN）都不改变结果的情况：x * 1.0、1.0 * x、x / 1.0、x - 0.0、x + -0.0 -> x
+ * x / 2^k 不改写为移位：带符号除法向零取整，移位需要额外的修正指令，在虚拟机上比一条 divi 更慢
+ */
+public class AlgebraicSimplifier {
+
+    /**
+     * 尝试化简 node，它的操作数必须已经化简过
+     *
+     * @return 是否化简了
+     */
+    public static boolean simplify(Tree tree, int node) {
+        NodeKind kind = tree.getKind(node);
+        if (kind == NodeKind.NEG) {
+            int operand = tree.getA(node);
+            if (tree.getKind(operand) == NodeKind.NEG) {
+                tree.replace(node, tree.getA(operand));
+                return true;
+            }
+            return false;
+        } else if (!kind.isArithmetic()) {
+            return false;
+        }
+        if (tree.getType(node) == Type.int_ty) {
+            return simplifyInt(tree, node, kind);
+        }
+        return simplifyDouble(tree, node, kind);
+    }
+
+    private static boolean simplifyInt(Tree tree, int node, NodeKind kind) {
+        int left = tree.getA(node);
+        int right = tree.getB(node);
+        boolean leftConstant = tree.getKind(left) == NodeKind.INT;
+        boolean rightConstant = tree.getKind(right) == NodeKind.INT;
+        long l = tree.getLong(left);
+        long r = tree.getLong(right);
+        switch (kind) {
+            case ADD:
+                if (rightConstant && r == 0) {
+                    tree.replace(node, left);
+                    return true;
+                } else if (leftConstant && l == 0) {
+                    tree.replace(node, right);
+                    return true;
+                }
+                return false;
+            case SUB:
+                if (rightConstant && r == 0) {
+                    tree.replace(node, left);
+                    return true;
+                } else if (leftConstant && l == 0) {
+                    tree.setOperator(node, NodeKind.NEG, right, -1);
+                    return true;
+                }
+                return false;
+            case MUL:
+                if (leftConstant && !rightConstant) {
+                    return simplifyMultiply(tree, node, right, left);
+                } else if (rightConstant) {
+                    return simplifyMultiply(tree, node, left, right);
+                }
+                return false;
+            case DIV:
+                if (rightConstant && r == 1) {
+                    tree.replace(node, left);
+                    return true;
+                } else if (rightConstant && r == -1) {
+                    tree.setOperator(node, NodeKind.NEG, left, -1);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 化简 value * constant
+     */
+    private static boolean simplifyMultiply(Tree tree, int node, int value, int constant) {
+        long c = tree.getLong(constant);
+        if (c == 1) {
+            tree.replace(node, value);
+        } else if (c == -1) {
+            tree.setOperator(node, NodeKind.NEG, value, -1);
+        } else if (c == 0) {
+            if (hasSideEffect(tree, value)) {
+                return false;
+            }
+            tree.setConstant(node, NodeKind.INT, 0);
+        } else if (c > 0 && (c & (c - 1)) == 0) {
+            tree.setConstant(constant, NodeKind.INT, Long.numberOfTrailingZeros(c));
+            tree.setOperator(node, NodeKind.SHL, value, constant);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean simplifyDouble(Tree tree, int node, NodeKind kind) {
+        int left = tree.getA(node);
+        int right = tree.getB(node);
+        boolean leftConstant = tree.getKind(left) == NodeKind.DOUBLE;
+        boolean rightConstant = tree.getKind(right) == NodeKind.DOUBLE;
+        long l = tree.getLong(left);
+        long r = tree.getLong(right);
+        long one = Double.doubleToRawLongBits(1.0);
+        long negativeZero = Double.doubleToRawLongBits(-0.0);
+        int value;
+        if (kind == NodeKind.MUL && rightConstant && r == one || kind == NodeKind.DIV && rightConstant && r == one
+                || kind == NodeKind.SUB && rightConstant && r == 0 || kind == NodeKind.ADD && rightConstant && r == negativeZero) {
+            value = left;
+        } else if (kind == NodeKind.MUL && leftConstant && l == one || kind == NodeKind.ADD && leftConstant && l == negativeZero) {
+            value = right;
+        } else {
+            return false;
+        }
+        tree.replace(node, value);
+        return true;
+    }
+
+    /**
+     * 以 node 为根的表达式中是否有对自定义函数或标准库的调用，或者可能除以 0 的整数除法
+     */
+    private static boolean hasSideEffect(Tree tree, int node) {
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = node;
+        while (depth > 0) {
+            int current = stack[--depth];
+            NodeKind kind = tree.getKind(current);
+            if (kind == NodeKind.CALL || kind == NodeKind.STDLIB) {
+                return true;
+            }
+            if (kind == NodeKind.DIV && tree.getType(current) == Type.int_ty) {
+                int divisor = tree.getB(current);
+                if (tree.getKind(divisor) != NodeKind.INT || tree.getLong(divisor) == 0) {
+                    return true;
+                }
+            }
+            if (depth + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (kind == NodeKind.NEG || kind == NodeKind.CAST) {
+                stack[depth++] = tree.getA(current);
+            } else if (kind.isArithmetic() || kind.isComparison()) {
+                stack[depth++] = tree.getA(current);
+                stack[depth++] = tree.getB(current);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,159 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.Type;
+
+/**
+ * 常量折叠
+ * 操作数都是常量的算术、比较、取负和类型转换节点原地改为常量节点，节点类型不变
+ * 整数运算按 Java long 的回绕语义，浮点运算按 IEEE 语义，与虚拟机的指令一致
+ * 除数为 0 时不折叠，留给运行时处理；涉及 NaN 的比较也不折叠
+ */
+public class ConstantFolder {
+
+    /**
+     * 折叠整个 tree
+     * 节点总是在它的操作数之后创建，按下标顺序处理即为自底向上
+     */
+    public static void foldAll(Tree tree) {
+        for (int node = 0; node < tree.size(); node++) {
+            fold(tree, node);
+        }
+    }
+
+    /**
+     * 尝试折叠 node，它的操作数必须已经折叠过
+     *
+     * @return 是否折叠成了常量
+     */
+    public static boolean fold(Tree tree, int node) {
+        NodeKind kind = tree.getKind(node);
+        if (kind == NodeKind.NEG) {
+            int operand = tree.getA(node);
+            NodeKind operandKind = tree.getKind(operand);
+            if (operandKind == NodeKind.INT) {
+                tree.setConstant(node, NodeKind.INT, -tree.getLong(operand));
+                return true;
+            } else if (operandKind == NodeKind.DOUBLE) {
+                tree.setConstant(node, NodeKind.DOUBLE, Double.doubleToRawLongBits(-tree.getDouble(operand)));
+                return true;
+            }
+            return false;
+        } else if (kind == NodeKind.CAST) {
+            int operand = tree.getA(node);
+            NodeKind operandKind = tree.getKind(operand);
+            Type type = tree.getType(node);
+            if (operandKind == NodeKind.INT && type == Type.double_ty) {
+                tree.setConstant(node, NodeKind.DOUBLE, Double.doubleToRawLongBits((double) tree.getLong(operand)));
+                return true;
+            } else if (operandKind == NodeKind.DOUBLE && type == Type.int_ty) {
+                tree.setConstant(node, NodeKind.INT, (long) tree.getDouble(operand));
+                return true;
+            } else if (operandKind == NodeKind.INT || operandKind == NodeKind.DOUBLE) {
+                // 类型相同的转换不产生指令
+                tree.setConstant(node, operandKind, tree.getLong(operand));
+                return true;
+            }
+            return false;
+        } else if (!kind.isArithmetic() && !kind.isComparison()) {
+            return false;
+        }
+
+        int left = tree.getA(node);
+        int right = tree.getB(node);
+        NodeKind leftKind = tree.getKind(left);
+        NodeKind rightKind = tree.getKind(right);
+        if (leftKind != NodeKind.INT && leftKind != NodeKind.DOUBLE || leftKind != rightKind) {
+            return false;
+        }
+
+        if (kind.isComparison()) {
+            int compare;
+            if (leftKind == NodeKind.INT) {
+                compare = Long.compare(tree.getLong(left), tree.getLong(right));
+            } else {
+                double l = tree.getDouble(left);
+                double r = tree.getDouble(right);
+                if (Double.isNaN(l) || Double.isNaN(r)) {
+                    return false;
+                }
+                compare = l < r ? -1 : l > r ? 1 : 0;
+            }
+            tree.setConstant(node, NodeKind.INT, compareResult(kind, compare));
+            return true;
+        }
+
+        if (leftKind == NodeKind.INT) {
+            long l = tree.getLong(left);
+            long r = tree.getLong(right);
+            long value;
+            switch (kind) {
+                case ADD:
+                    value = l + r;
+                    break;
+                case SUB:
+                    value = l - r;
+                    break;
+                case MUL:
+                    value = l * r;
+                    break;
+                case SHL:
+                    value = l << r;
+                    break;
+                default:
+                    if (r == 0) {
+                        return false;
+                    }
+                    value = l / r;
+            }
+            tree.setConstant(node, NodeKind.INT, value);
+        } else {
+            double l = tree.getDouble(left);
+            double r = tree.getDouble(right);
+            double value;
+            switch (kind) {
+                case ADD:
+                    value = l + r;
+                    break;
+                case SUB:
+                    value = l - r;
+                    break;
+                case MUL:
+                    value = l * r;
+                    break;
+                default:
+                    if (r == 0) {
+                        return false;
+                    }
+                    value = l / r;
+            }
+            tree.setConstant(node, NodeKind.DOUBLE, Double.doubleToRawLongBits(value));
+        }
+        return true;
+    }
+
+    /**
+     * cmpi / cmpf 的结果为 compare 时，比较运算最终留在栈上的值
+     */
+    private static long compareResult(NodeKind kind, int compare) {
+        switch (kind) {
+            case GT:
+                // setgt
+                return compare > 0 ? 1 : 0;
+            case LT:
+                // setlt
+                return compare < 0 ? 1 : 0;
+            case GE:
+                // setlt, not
+                return compare < 0 ? 0 : 1;
+            case LE:
+                // setgt, not
+                return compare > 0 ? 0 : 1;
+            case EQ:
+                // not
+                return compare == 0 ? 1 : 0;
+            default:
+                // 不等直接使用比较结果
+                return compare;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.Type;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 循环不变量外提
+ * while 的条件和循环体中，只由常量和循环中没有赋值的变量算出的运算在每次循环中结果都相同，
+ * 在循环之前算一次存入新的局部变量槽位，循环中改为读取这个槽位
+ * 循环中有对自定义函数的调用时，被调函数可能给全局变量赋值，这时读取全局变量的运算不外提
+ * 外提的运算总会被执行，即使循环一次也不执行，所以只外提不会出错的运算：除数不是非零常量的整数除法不外提
+ * 外层循环先处理，外提后剩下的部分在内层循环中可能还是不变的，再提到内层循环之前
+ * 条件为常量的 while 靠 break 退出，常常只执行一次，外提反而多出存取槽位的指令，这样的循环本身不外提
+ * 外提之后接着用同一份分析结果对这个循环做归纳变量的强度削弱，见 StrengthReduction
+ */
+public class LoopInvariantMotion {
+    Tree tree;
+    // 当前循环中被赋值的变量，按作用域（0全局，1参数，2局部）
+    BitSet[] written = {new BitSet(), new BitSet(), new BitSet()};
+    boolean hasCall;
+    // 按节点下标：是否为不变的表达式，以及父节点
+    boolean[] invariant = new boolean[256];
+    int[] parents = new int[256];
+    // 遍历用的栈，以及遍历到的节点的先序序列
+    int[] stack = new int[64];
+    int[] order = new int[256];
+    int orderSize;
+    // 等待处理的语句和它可以使用的第一个槽位
+    int[] statements = new int[32];
+    int[] firstSlots = new int[32];
+    int statementDepth = 0;
+    StrengthReduction strengthReduction;
+
+    /**
+     * 处理以 root 为根的函数体
+     * while 语句原地改为一个块：先把外提的运算存入槽位，再执行循环
+     *
+     * @param locals 函数原有的局部变量数，外提使用的槽位排在它之后
+     * @return 加上外提使用的槽位后的局部变量数
+     */
+    public static int hoistAll(Tree tree, int root, int locals) {
+        return new LoopInvariantMotion(tree).hoistStatements(root, locals);
+    }
+
+    private LoopInvariantMotion(Tree tree) {
+        this.tree = tree;
+        this.strengthReduction = new StrengthReduction(this);
+    }
+
+    /**
+     * 遍历语句，遇到 while 就外提，每个 while 的循环体使用外层循环之后的槽位
+     */
+    private int hoistStatements(int root, int locals) {
+        int peak = locals;
+        pushStatement(root, locals);
+        while (statementDepth > 0) {
+            statementDepth--;
+            int node = statements[statementDepth];
+            int slot = firstSlots[statementDepth];
+            switch (tree.getKind(node)) {
+                case BLOCK:
+                    for (int statement = tree.getA(node); statement != -1; statement = tree.getNext(statement)) {
+                        pushStatement(statement, slot);
+                    }
+                    break;
+                case IF:
+                    pushStatement(tree.getB(node), slot);
+                    if (tree.getC(node) != -1) {
+                        pushStatement(tree.getC(node), slot);
+                    }
+                    break;
+                case WHILE:
+                    NodeKind condition = tree.getKind(tree.getA(node));
+                    if (condition == NodeKind.INT || condition == NodeKind.DOUBLE) {
+                        pushStatement(tree.getB(node), slot);
+                        break;
+                    }
+                    int end = hoist(node, slot);
+                    peak = Math.max(peak, end);
+                    // node 已经成为块，最后一条语句是新的 while，接着处理它的循环体
+                    pushStatement(tree.getB(tree.getB(node)), end);
+                    break;
+                default:
+            }
+        }
+        return peak;
+    }
+
+    private void pushStatement(int node, int slot) {
+        if (statementDepth == statements.length) {
+            statements = Arrays.copyOf(statements, statementDepth * 2);
+            firstSlots = Arrays.copyOf(firstSlots, statementDepth * 2);
+        }
+        statements[statementDepth] = node;
+        firstSlots[statementDepth] = slot;
+        statementDepth++;
+    }
+
+    /**
+     * 外提一个 while 中的不变运算并削弱其中的归纳变量表达式，使用从 slot 开始的槽位
+     *
+     * @return 下一个空闲的槽位
+     */
+    private int hoist(int loop, int slot) {
+        collect(loop);
+        // 先序序列倒过来处理即为先处理操作数
+        for (int i = orderSize - 1; i >= 0; i--) {
+            int node = order[i];
+            invariant[node] = isInvariant(node);
+        }
+        int condition = tree.getA(loop);
+        int body = tree.getB(loop);
+        int block = tree.addBlock();
+        for (int i = 0; i < orderSize; i++) {
+            int node = order[i];
+            if (invariant[node] && !invariant[parents[node]] && isWorthHoisting(node)) {
+                // 相同的运算共用一个槽位，外提出的运算是块中赋值语句的右值
+                int same = -1;
+                for (int statement = tree.getA(block); statement != -1 && same == -1; statement = tree.getNext(statement)) {
+                    if (tree.isSameExpression(tree.getC(statement), node)) {
+                        same = tree.getB(statement);
+                    }
+                }
+                if (same != -1) {
+                    tree.setLocal(node, same);
+                } else {
+                    int copy = tree.moveToLocal(node, slot);
+                    tree.append(block, tree.addAssign(2, slot, copy));
+                    slot++;
+                }
+            }
+        }
+        slot = strengthReduction.reduce(loop, block, slot);
+        tree.append(block, tree.add(NodeKind.WHILE, Type.void_ty, condition, body, -1));
+        tree.replace(loop, block);
+        return slot;
+    }
+
+    /**
+     * 遍历循环的条件和循环体，记录被赋值的变量、是否有调用，以及各表达式节点的先序序列和父节点
+     */
+    private void collect(int loop) {
+        for (BitSet set : written) {
+            set.clear();
+        }
+        hasCall = false;
+        orderSize = 0;
+        ensureNodes();
+        invariant[loop] = false;
+        int depth = 0;
+        stack[depth++] = loop;
+        while (depth > 0) {
+            int node = stack[--depth];
+            NodeKind kind = tree.getKind(node);
+            if (kind == NodeKind.ASSIGN) {
+                written[tree.getA(node)].set(tree.getB(node));
+            } else if (kind == NodeKind.CALL) {
+                hasCall = true;
+            }
+            if (node != loop) {
+                invariant[node] = false;
+                if (orderSize == order.length) {
+                    order = Arrays.copyOf(order, orderSize * 2);
+                }
+                order[orderSize++] = node;
+            }
+            // 子节点逆序入栈，出栈即为先序
+            int first = depth;
+            switch (kind) {
+                case ASSIGN:
+                    depth = visit(node, tree.getC(node), depth);
+                    break;
+                case NEG:
+                case CAST:
+                case RETURN:
+                    depth = visit(node, tree.getA(node), depth);
+                    break;
+                case CALL:
+                case STDLIB:
+                    for (int arg = tree.getB(node); arg != -1; arg = tree.getNext(arg)) {
+                        depth = visit(node, arg, depth);
+                    }
+                    break;
+                case BLOCK:
+                    for (int statement = tree.getA(node); statement != -1; statement = tree.getNext(statement)) {
+                        depth = visit(node, statement, depth);
+                    }
+                    break;
+                case IF:
+                    depth = visit(node, tree.getA(node), depth);
+                    depth = visit(node, tree.getB(node), depth);
+                    depth = visit(node, tree.getC(node), depth);
+                    break;
+                case WHILE:
+                    depth = visit(node, tree.getA(node), depth);
+                    depth = visit(node, tree.getB(node), depth);
+                    break;
+                default:
+                    if (kind.isArithmetic() || kind.isComparison()) {
+                        depth = visit(node, tree.getA(node), depth);
+                        depth = visit(node, tree.getB(node), depth);
+                    }
+            }
+            for (int i = first, j = depth - 1; i < j; i++, j--) {
+                int temp = stack[i];
+                stack[i] = stack[j];
+                stack[j] = temp;
+            }
+        }
+    }
+
+    private int visit(int parent, int child, int depth) {
+        if (child == -1) {
+            return depth;
+        }
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        parents[child] = parent;
+        stack[depth] = child;
+        return depth + 1;
+    }
+
+    private void ensureNodes() {
+        if (invariant.length < tree.size()) {
+            int capacity = Math.max(tree.size(), invariant.length * 2);
+            invariant = Arrays.copyOf(invariant, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+        }
+    }
+
+    /**
+     * 操作数已经处理过时，判断 node 在循环中是否不变
+     */
+    private boolean isInvariant(int node) {
+        NodeKind kind = tree.getKind(node);
+        switch (kind) {
+            case INT:
+            case DOUBLE:
+            case STRING:
+                return true;
+            case LOAD:
+                int scope = tree.getA(node);
+                return !written[scope].get(tree.getB(node)) && !(scope == 0 && hasCall);
+            case NEG:
+            case CAST:
+                return invariant[tree.getA(node)];
+            case DIV:
+                if (tree.getType(node) == Type.int_ty) {
+                    int divisor = tree.getB(node);
+                    if (tree.getKind(divisor) != NodeKind.INT || tree.getLong(divisor) == 0) {
+                        return false;
+                    }
+                }
+                return invariant[tree.getA(node)] && invariant[tree.getB(node)];
+            default:
+                if (kind.isArithmetic() || kind.isComparison()) {
+                    return invariant[tree.getA(node)] && invariant[tree.getB(node)];
+                }
+                return false;
+        }
+    }
+
+    /**
+     * 常量和单独的变量读取外提后仍要一次读取，不值得外提；相同类型的转换不产生指令
+     */
+    private boolean isWorthHoisting(int node) {
+        NodeKind kind = tree.getKind(node);
+        if (kind == NodeKind.CAST) {
+            return tree.getType(node) != tree.getType(tree.getA(node));
+        }
+        return kind == NodeKind.NEG || kind.isArithmetic() || kind.isComparison();
+    }
+}
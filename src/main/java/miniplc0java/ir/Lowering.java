@@ -0,0 +1,451 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.Type;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.Inliner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把 Tree 降低为 o0 指令
+ * 用显式栈遍历，不递归，表达式嵌套再深也不会栈溢出
+ * 分支的相对偏移在各自的目标确定后回填，break / continue 回填到所在的最内层 while
+ * 设置了 Inliner 时，能内联的调用直接展开为被调函数的函数体，使用的槽位排在函数原有的局部变量之后
+ * return 自己的调用（尾递归）不生成 call：实参存回参数，再跳回函数开头，递归多深都不占用调用栈
+ */
+public class Lowering {
+    // 遍历栈，每帧为节点、阶段和两个节点种类自定的整数
+    int[] nodes = new int[64];
+    int[] phases = new int[64];
+    int[] cursors = new int[64];
+    int[] auxes = new int[64];
+    int depth = 0;
+
+    // 等待回填的 break / continue，记录指令下标和所在循环的嵌套层数
+    int[] pendingIndexes = new int[16];
+    int[] pendingLevels = new int[16];
+    boolean[] pendingBreaks = new boolean[16];
+    int pendingCount = 0;
+    int loopLevel = 0;
+
+    Tree tree;
+    List<Instruction> body;
+    // arga 的序号需要跳过返回值所占的 slot
+    int argOffset;
+    // 正在降低的函数的序号和函数体开头的下标，用于尾递归
+    int self;
+    int entry;
+
+    Inliner inliner;
+    // 内联展开时下一个空闲的槽位，以及用到过的最大槽位数
+    int inlineTop;
+    int inlinePeak;
+    // 正在展开的各层内联调用直接替换的实参，不替换的为 null
+    List<Instruction[][]> inlineArgs = new ArrayList<>();
+
+    public void setInliner(Inliner inliner) {
+        this.inliner = inliner;
+    }
+
+    /**
+     * 把以 root 为根的节点降低为指令，追加到 body 末尾
+     *
+     * @param self      正在降低的函数在全局变量表中的序号，_start 为 -1
+     * @param argOffset 返回值占据的 slot 数，参数的序号要加上它
+     * @param locals    函数原有的局部变量数
+     * @return 加上内联展开使用的槽位后的局部变量数
+     */
+    public int lower(Tree tree, int root, int self, int argOffset, int locals, List<Instruction> body) {
+        this.tree = tree;
+        this.body = body;
+        this.self = self;
+        this.entry = body.size();
+        this.argOffset = argOffset;
+        inlineTop = locals;
+        inlinePeak = locals;
+        depth = 0;
+        pendingCount = 0;
+        loopLevel = 0;
+        push(root);
+        while (depth > 0) {
+            int top = depth - 1;
+            int node = nodes[top];
+            int phase = phases[top]++;
+            switch (tree.getKind(node)) {
+                case INT:
+                    emit(Operation.push, tree.getLong(node));
+                    depth--;
+                    break;
+                case DOUBLE:
+                    body.add(new Instruction(Operation.push, tree.getDouble(node)));
+                    depth--;
+                    break;
+                case STRING:
+                    body.add(Instruction.pushString(tree.getLong(node)));
+                    depth--;
+                    break;
+                case LOAD:
+                    emitAddress(tree.getA(node), tree.getB(node));
+                    emit(Operation.load64);
+                    depth--;
+                    break;
+                case ASSIGN:
+                    if (phase == 0) {
+                        emitAddress(tree.getA(node), tree.getB(node));
+                        push(tree.getC(node));
+                    } else {
+                        emit(Operation.store64);
+                        depth--;
+                    }
+                    break;
+                case NEG:
+                    if (phase == 0) {
+                        push(tree.getA(node));
+                    } else {
+                        emit(tree.getType(node) == Type.int_ty ? Operation.negi : Operation.negf);
+                        depth--;
+                    }
+                    break;
+                case CAST:
+                    if (phase == 0) {
+                        push(tree.getA(node));
+                    } else {
+                        Type from = tree.getType(tree.getA(node));
+                        Type to = tree.getType(node);
+                        if (from == Type.int_ty && to == Type.double_ty) {
+                            emit(Operation.itof);
+                        } else if (from == Type.double_ty && to == Type.int_ty) {
+                            emit(Operation.ftoi);
+                        }
+                        depth--;
+                    }
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case SHL:
+                case GT:
+                case LT:
+                case GE:
+                case LE:
+                case EQ:
+                case NEQ:
+                    if (phase == 0) {
+                        push(tree.getA(node));
+                    } else if (phase == 1) {
+                        push(tree.getB(node));
+                    } else {
+                        emitOperator(node);
+                        depth--;
+                    }
+                    break;
+                case CALL:
+                case STDLIB:
+                    // 参数依次压栈，cursor 为下一个参数；内联时 aux 为展开使用的第一个槽位，不内联时为 -1，
+                    // 每个参数计算前压入它的槽位地址、计算后存入，phase - 1 即上一个参数的序号
+                    FunctionTable callee = phase == 0 || auxes[top] != -1 ? inlinable(node) : null;
+                    if (phase == 0) {
+                        if (callee != null) {
+                            auxes[top] = inlineTop;
+                            inlineTop += Inliner.frameSize(callee);
+                            inlinePeak = Math.max(inlinePeak, inlineTop);
+                            inlineArgs.add(new Instruction[callee.getArgs()][]);
+                        } else {
+                            auxes[top] = -1;
+                            if (tree.getKind(node) == NodeKind.CALL && tree.getType(node) != Type.void_ty) {
+                                emit(Operation.stackalloc, 1);
+                            }
+                        }
+                        cursors[top] = tree.getB(node);
+                    }
+                    Instruction[][] args = callee != null ? inlineArgs.get(inlineArgs.size() - 1) : null;
+                    if (callee != null && phase > 0 && args[phase - 1] == null) {
+                        emit(Operation.store64);
+                    }
+                    if (cursors[top] != -1) {
+                        int arg = cursors[top];
+                        cursors[top] = tree.getNext(arg);
+                        if (callee == null) {
+                            push(arg);
+                        } else if (Inliner.isReadOnly(callee, phase) && (args[phase] = simpleValue(arg)) != null) {
+                            // 不生成指令，下一轮处理下一个参数
+                        } else {
+                            emit(Operation.loca, Inliner.argSlot(callee, auxes[top], phase));
+                            push(arg);
+                        }
+                    } else {
+                        if (callee != null) {
+                            inlineArgs.remove(inlineArgs.size() - 1);
+                            if (!Inliner.expand(callee, auxes[top], args, body) && Inliner.returnSlots(callee) > 0) {
+                                emit(Operation.loca, auxes[top]);
+                                emit(Operation.load64);
+                            }
+                            inlineTop = auxes[top];
+                        } else if (tree.getKind(node) == NodeKind.CALL) {
+                            emit(Operation.callname, tree.getA(node));
+                        } else {
+                            emit(tree.getOperation(node));
+                        }
+                        depth--;
+                    }
+                    break;
+                case BLOCK:
+                    // aux 为上一条语句，作为语句的表达式留下的值要弹出，否则内联展开后会留在调用者的栈上
+                    if (phase == 0) {
+                        cursors[top] = tree.getA(node);
+                    } else if (leavesValue(auxes[top])) {
+                        emit(Operation.pop);
+                    }
+                    if (cursors[top] != -1) {
+                        auxes[top] = cursors[top];
+                        int statement = cursors[top];
+                        cursors[top] = tree.getNext(statement);
+                        push(statement);
+                    } else {
+                        depth--;
+                    }
+                    break;
+                case IF:
+                    // auxes 为 brfalse 的下标，cursors 为跳过 else 的 br 的下标
+                    if (phase == 0) {
+                        push(tree.getA(node));
+                    } else if (phase == 1) {
+                        auxes[top] = emit(Operation.brfalse, 0);
+                        push(tree.getB(node));
+                    } else if (phase == 2) {
+                        cursors[top] = emit(Operation.br, 0);
+                        patch(auxes[top], body.size());
+                        if (tree.getC(node) != -1) {
+                            push(tree.getC(node));
+                        }
+                    } else {
+                        patch(cursors[top], body.size());
+                        depth--;
+                    }
+                    break;
+                case WHILE:
+                    // 循环倒置为 cond; brfalse end; start: body; cond; brtrue start; end:
+                    // 条件在循环前判断一次，之后每次循环只执行末尾的 brtrue，continue 跳到末尾的条件
+                    // auxes 为循环体的第一条指令的下标，它前一条即 brfalse，cursors 为末尾条件的第一条指令的下标
+                    if (phase == 0) {
+                        push(tree.getA(node));
+                    } else if (phase == 1) {
+                        emit(Operation.brfalse, 0);
+                        auxes[top] = body.size();
+                        loopLevel++;
+                        push(tree.getB(node));
+                    } else if (phase == 2) {
+                        cursors[top] = body.size();
+                        push(tree.getA(node));
+                    } else {
+                        int start = auxes[top];
+                        patch(emit(Operation.brtrue, 0), start);
+                        int end = body.size();
+                        patch(start - 1, end);
+                        while (pendingCount > 0 && pendingLevels[pendingCount - 1] == loopLevel) {
+                            pendingCount--;
+                            patch(pendingIndexes[pendingCount], pendingBreaks[pendingCount] ? end : cursors[top]);
+                        }
+                        loopLevel--;
+                        depth--;
+                    }
+                    break;
+                case RETURN:
+                    if (isTailCall(tree.getA(node))) {
+                        // 每个参数先压入参数地址再计算实参，全部算完后逆序存入，实参读到的仍是本次调用的参数
+                        // phase 即已经计算的实参数
+                        if (phase == 0) {
+                            cursors[top] = tree.getB(tree.getA(node));
+                        }
+                        if (cursors[top] != -1) {
+                            int arg = cursors[top];
+                            cursors[top] = tree.getNext(arg);
+                            emit(Operation.arga, phase + argOffset);
+                            push(arg);
+                        } else {
+                            for (int i = 0; i < phase; i++) {
+                                emit(Operation.store64);
+                            }
+                            patch(emit(Operation.br, 0), entry);
+                            depth--;
+                        }
+                    } else if (phase == 0 && tree.getA(node) != -1) {
+                        emit(Operation.arga, 0);
+                        push(tree.getA(node));
+                    } else {
+                        if (tree.getA(node) != -1) {
+                            emit(Operation.store64);
+                        }
+                        emit(Operation.ret);
+                        depth--;
+                    }
+                    break;
+                case BREAK:
+                case CONTINUE:
+                    addPending(emit(Operation.br, 0), tree.getKind(node) == NodeKind.BREAK);
+                    depth--;
+                    break;
+                default:
+                    throw new Error("Illegal node");
+            }
+        }
+        this.tree = null;
+        this.body = null;
+        return inlinePeak;
+    }
+
+    /**
+     * 常量或局部变量、参数的读取节点对应的指令，可以在内联的函数体中直接替换对参数的读取；其他节点返回 null
+     */
+    private Instruction[] simpleValue(int node) {
+        switch (tree.getKind(node)) {
+            case INT:
+                return new Instruction[]{new Instruction(Operation.push, tree.getLong(node))};
+            case DOUBLE:
+                return new Instruction[]{new Instruction(Operation.push, tree.getDouble(node))};
+            case STRING:
+                return new Instruction[]{Instruction.pushString(tree.getLong(node))};
+            case LOAD:
+                if (tree.getA(node) == 1) {
+                    return new Instruction[]{new Instruction(Operation.arga, tree.getB(node) + argOffset), new Instruction(Operation.load64)};
+                } else if (tree.getA(node) == 2) {
+                    return new Instruction[]{new Instruction(Operation.loca, tree.getB(node)), new Instruction(Operation.load64)};
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 节点计算后在栈上留下一个值；比较节点的类型记为 void，但同样留下结果
+     */
+    private boolean leavesValue(int node) {
+        return tree.getType(node) != Type.void_ty || tree.getKind(node).isComparison();
+    }
+
+    /**
+     * 返回值节点是对正在降低的函数自己的调用
+     */
+    private boolean isTailCall(int value) {
+        return self != -1 && value != -1 && tree.getKind(value) == NodeKind.CALL && tree.getA(value) == self;
+    }
+
+    /**
+     * 调用节点能内联时返回被调函数
+     */
+    private FunctionTable inlinable(int node) {
+        if (inliner == null || tree.getKind(node) != NodeKind.CALL) {
+            return null;
+        }
+        return inliner.inlinable(tree.getA(node), body);
+    }
+
+    private void push(int node) {
+        if (depth == nodes.length) {
+            int capacity = depth * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            phases = Arrays.copyOf(phases, capacity);
+            cursors = Arrays.copyOf(cursors, capacity);
+            auxes = Arrays.copyOf(auxes, capacity);
+        }
+        nodes[depth] = node;
+        phases[depth] = 0;
+        depth++;
+    }
+
+    private void addPending(int index, boolean isBreak) {
+        if (pendingCount == pendingIndexes.length) {
+            int capacity = pendingCount * 2;
+            pendingIndexes = Arrays.copyOf(pendingIndexes, capacity);
+            pendingLevels = Arrays.copyOf(pendingLevels, capacity);
+            pendingBreaks = Arrays.copyOf(pendingBreaks, capacity);
+        }
+        pendingIndexes[pendingCount] = index;
+        pendingLevels[pendingCount] = loopLevel;
+        pendingBreaks[pendingCount] = isBreak;
+        pendingCount++;
+    }
+
+    /**
+     * 把下标为 index 的跳转指令的目标设为 target，偏移相对于跳转的下一条指令
+     */
+    private void patch(int index, int target) {
+        body.get(index).setX(target - index - 1);
+    }
+
+    private int emit(Operation opt) {
+        body.add(new Instruction(opt));
+        return body.size() - 1;
+    }
+
+    private int emit(Operation opt, int x) {
+        body.add(new Instruction(opt, x));
+        return body.size() - 1;
+    }
+
+    private int emit(Operation opt, long x) {
+        body.add(new Instruction(opt, x));
+        return body.size() - 1;
+    }
+
+    private void emitAddress(int scope, int order) {
+        if (scope == 0) {
+            emit(Operation.globa, order);
+        } else if (scope == 1) {
+            emit(Operation.arga, order + argOffset);
+        } else {
+            emit(Operation.loca, order);
+        }
+    }
+
+    private void emitOperator(int node) {
+        NodeKind kind = tree.getKind(node);
+        if (kind.isArithmetic()) {
+            boolean isInt = tree.getType(node) == Type.int_ty;
+            switch (kind) {
+                case ADD:
+                    emit(isInt ? Operation.addi : Operation.addf);
+                    break;
+                case SUB:
+                    emit(isInt ? Operation.subi : Operation.subf);
+                    break;
+                case MUL:
+                    emit(isInt ? Operation.muli : Operation.mulf);
+                    break;
+                case SHL:
+                    emit(Operation.shl);
+                    break;
+                default:
+                    emit(isInt ? Operation.divi : Operation.divf);
+            }
+            return;
+        }
+        emit(tree.getCompareType(node) == Type.int_ty ? Operation.cmpi : Operation.cmpf);
+        switch (kind) {
+            case GT:
+                emit(Operation.setgt);
+                break;
+            case LT:
+                emit(Operation.setlt);
+                break;
+            case GE:
+                emit(Operation.setlt);
+                emit(Operation.not);
+                break;
+            case LE:
+                emit(Operation.setgt);
+                emit(Operation.not);
+                break;
+            case EQ:
+                emit(Operation.not);
+                break;
+            default:
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package miniplc0java.ir;
+
+/**
+ * 中间表示的节点种类，各种类节点的字段含义见 Tree
+ */
+public enum NodeKind {
+    // 表达式
+    INT, DOUBLE, STRING, LOAD, ASSIGN, NEG, CAST,
+    ADD, SUB, MUL, DIV, SHL,
+    GT, LT, GE, LE, EQ, NEQ,
+    CALL, STDLIB,
+    // 语句
+    BLOCK, IF, WHILE, RETURN, BREAK, CONTINUE;
+
+    static final NodeKind[] VALUES = values();
+
+    public boolean isArithmetic() {
+        return this == ADD || this == SUB || this == MUL || this == DIV || this == SHL;
+    }
+
+    public boolean isComparison() {
+        return this.ordinal() >= GT.ordinal() && this.ordinal() <= NEQ.ordinal();
+    }
+}
@@ -0,0 +1,270 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 归纳变量的强度削弱，在 LoopInvariantMotion 外提一个 while 的不变运算之后进行
+ * 基本归纳变量：循环中每次赋值都是 v = v + c 或 v = v - c（c 为整数常量）的参数或局部变量
+ * 由一个基本归纳变量和不变量经加减、取负、乘常量、左移常量位得到的整数表达式为 k * v + 不变量，k 为常量，
+ * 它在循环之前算一次存入新槽位 t，每条 v = v + c 之后紧接着 t = t + k * c，循环中的表达式改为读取 t
+ * 回绕的整数运算对加法和乘常数都是线性的，t 与表达式在任何位置都相等；
+ * break / continue 不会落在 v 的赋值和 t 的更新之间
+ * 虚拟机上乘法和加法一样只是一条指令，更新 t 本身也要 6 条指令，
+ * 所以按指令条数估算，只有每次循环省下的指令多于更新的指令时才削弱，相同的表达式共用一个槽位
+ */
+class StrengthReduction {
+    // 更新 t 的指令条数：loca t; loca t; load64; push d; addi; store64
+    private static final int UPDATE_COST = 6;
+    // 读取 t 的指令条数
+    private static final int LOAD_COST = 2;
+
+    Tree tree;
+    LoopInvariantMotion loop;
+    // 按节点下标：所属的基本归纳变量（-1 为不变量，-2 为不是这种表达式），系数，降低后的指令条数
+    int[] inductions = new int[256];
+    long[] factors = new long[256];
+    int[] costs = new int[256];
+    // 基本归纳变量的作用域和序号 -> 编号，以及各自的赋值语句和步长
+    Map<Long, Integer> variables = new HashMap<>();
+    List<List<Integer>> assigns = new ArrayList<>();
+    List<List<Long>> steps = new ArrayList<>();
+
+    StrengthReduction(LoopInvariantMotion loop) {
+        this.tree = loop.tree;
+        this.loop = loop;
+    }
+
+    /**
+     * 削弱刚收集过的循环 whileNode 中的归纳变量表达式，初始化语句追加到 block，使用从 slot 开始的槽位
+     *
+     * @return 下一个空闲的槽位
+     */
+    int reduce(int whileNode, int block, int slot) {
+        findInductionVariables();
+        if (variables.isEmpty()) {
+            return slot;
+        }
+        analyseExpressions();
+        inductions[whileNode] = -2;
+
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < loop.orderSize; i++) {
+            int node = loop.order[i];
+            int parent = loop.parents[node];
+            if (inductions[node] >= 0 && costs[node] > LOAD_COST && factors[node] != 0
+                    && inductions[parent] < 0 && !isUpdate(parent)) {
+                candidates.add(node);
+            }
+        }
+        boolean[] grouped = new boolean[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            if (grouped[i]) {
+                continue;
+            }
+            int first = candidates.get(i);
+            List<Integer> group = new ArrayList<>();
+            group.add(first);
+            int saved = costs[first] - LOAD_COST;
+            for (int j = i + 1; j < candidates.size(); j++) {
+                int other = candidates.get(j);
+                if (!grouped[j] && tree.isSameExpression(first, other)) {
+                    grouped[j] = true;
+                    group.add(other);
+                    saved += costs[other] - LOAD_COST;
+                }
+            }
+            int variable = inductions[first];
+            if (saved <= UPDATE_COST * assigns.get(variable).size()) {
+                continue;
+            }
+            long factor = factors[first];
+            tree.append(block, tree.addAssign(2, slot, tree.moveToLocal(first, slot)));
+            for (int j = 1; j < group.size(); j++) {
+                tree.setLocal(group.get(j), slot);
+            }
+            for (int j = 0; j < assigns.get(variable).size(); j++) {
+                int assign = assigns.get(variable).get(j);
+                int delta = tree.addInt(factor * steps.get(variable).get(j));
+                int value = tree.add(NodeKind.ADD, Type.int_ty, tree.addLoad(2, slot, Type.int_ty), delta, -1);
+                tree.insertAfter(loop.parents[assign], assign, tree.addAssign(2, slot, value));
+            }
+            slot++;
+        }
+        return slot;
+    }
+
+    /**
+     * 找出基本归纳变量：循环中对它的每次赋值都是 v = v ± c，且赋值是块中的语句
+     */
+    private void findInductionVariables() {
+        variables.clear();
+        assigns.clear();
+        steps.clear();
+        Map<Long, Boolean> valid = new HashMap<>();
+        for (int i = 0; i < loop.orderSize; i++) {
+            int node = loop.order[i];
+            if (tree.getKind(node) != NodeKind.ASSIGN) {
+                continue;
+            }
+            int scope = tree.getA(node);
+            long key = (long) scope << 32 | tree.getB(node);
+            Long step = step(node);
+            boolean isInduction = scope != 0 && step != null && tree.getKind(loop.parents[node]) == NodeKind.BLOCK;
+            valid.merge(key, isInduction, Boolean::logicalAnd);
+        }
+        for (int i = 0; i < loop.orderSize; i++) {
+            int node = loop.order[i];
+            if (tree.getKind(node) != NodeKind.ASSIGN) {
+                continue;
+            }
+            long key = (long) tree.getA(node) << 32 | tree.getB(node);
+            if (!valid.get(key)) {
+                continue;
+            }
+            Integer variable = variables.get(key);
+            if (variable == null) {
+                variable = variables.size();
+                variables.put(key, variable);
+                assigns.add(new ArrayList<>());
+                steps.add(new ArrayList<>());
+            }
+            assigns.get(variable).add(node);
+            steps.get(variable).add(step(node));
+        }
+    }
+
+    /**
+     * 赋值为 v = v + c、v = c + v 或 v = v - c 时返回 c 或 -c，否则返回 null
+     */
+    private Long step(int assign) {
+        int value = tree.getC(assign);
+        if (tree.getType(value) != Type.int_ty) {
+            return null;
+        }
+        NodeKind kind = tree.getKind(value);
+        int left = tree.getA(value);
+        int right = tree.getB(value);
+        if (kind == NodeKind.ADD && isVariable(left, assign) && tree.getKind(right) == NodeKind.INT) {
+            return tree.getLong(right);
+        } else if (kind == NodeKind.ADD && isVariable(right, assign) && tree.getKind(left) == NodeKind.INT) {
+            return tree.getLong(left);
+        } else if (kind == NodeKind.SUB && isVariable(left, assign) && tree.getKind(right) == NodeKind.INT) {
+            return -tree.getLong(right);
+        }
+        return null;
+    }
+
+    private boolean isVariable(int node, int assign) {
+        return tree.getKind(node) == NodeKind.LOAD && tree.getA(node) == tree.getA(assign) && tree.getB(node) == tree.getB(assign);
+    }
+
+    private boolean isUpdate(int node) {
+        if (tree.getKind(node) != NodeKind.ASSIGN) {
+            return false;
+        }
+        Integer variable = variables.get((long) tree.getA(node) << 32 | tree.getB(node));
+        return variable != null;
+    }
+
+    /**
+     * 自底向上求出各表达式对应的归纳变量、系数和指令条数
+     */
+    private void analyseExpressions() {
+        if (inductions.length < tree.size()) {
+            int capacity = Math.max(tree.size(), inductions.length * 2);
+            inductions = Arrays.copyOf(inductions, capacity);
+            factors = Arrays.copyOf(factors, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+        }
+        for (int i = loop.orderSize - 1; i >= 0; i--) {
+            int node = loop.order[i];
+            costs[node] = cost(node);
+            inductions[node] = -2;
+            factors[node] = 0;
+            if (loop.invariant[node]) {
+                inductions[node] = -1;
+            } else if (tree.getType(node) == Type.int_ty) {
+                analyseExpression(node);
+            }
+        }
+    }
+
+    private void analyseExpression(int node) {
+        NodeKind kind = tree.getKind(node);
+        int a = tree.getA(node);
+        int b = tree.getB(node);
+        switch (kind) {
+            case LOAD:
+                Integer variable = variables.get((long) a << 32 | b);
+                if (variable != null) {
+                    set(node, variable, 1);
+                }
+                break;
+            case NEG:
+                if (inductions[a] >= 0) {
+                    set(node, inductions[a], -factors[a]);
+                }
+                break;
+            case ADD:
+            case SUB:
+                if (inductions[a] == -2 || inductions[b] == -2
+                        || inductions[a] >= 0 && inductions[b] >= 0 && inductions[a] != inductions[b]) {
+                    break;
+                }
+                set(node, Math.max(inductions[a], inductions[b]), kind == NodeKind.ADD ? factors[a] + factors[b] : factors[a] - factors[b]);
+                break;
+            case MUL:
+                if (inductions[a] >= 0 && tree.getKind(b) == NodeKind.INT) {
+                    set(node, inductions[a], factors[a] * tree.getLong(b));
+                } else if (inductions[b] >= 0 && tree.getKind(a) == NodeKind.INT) {
+                    set(node, inductions[b], factors[b] * tree.getLong(a));
+                }
+                break;
+            case SHL:
+                if (inductions[a] >= 0 && tree.getKind(b) == NodeKind.INT) {
+                    set(node, inductions[a], factors[a] << tree.getLong(b));
+                }
+                break;
+            default:
+        }
+    }
+
+    private void set(int node, int variable, long factor) {
+        inductions[node] = variable;
+        factors[node] = factor;
+    }
+
+    /**
+     * 操作数已经算过时，node 降低后的指令条数
+     */
+    private int cost(int node) {
+        NodeKind kind = tree.getKind(node);
+        switch (kind) {
+            case INT:
+            case DOUBLE:
+            case STRING:
+                return 1;
+            case LOAD:
+                return 2;
+            case NEG:
+                return 1 + costs[tree.getA(node)];
+            case CAST:
+                int operand = tree.getA(node);
+                return (tree.getType(node) != tree.getType(operand) ? 1 : 0) + costs[operand];
+            default:
+                if (kind.isArithmetic()) {
+                    return 1 + costs[tree.getA(node)] + costs[tree.getB(node)];
+                } else if (kind.isComparison()) {
+                    // cmp 和 set，GE / LE 还有一条 not，按少的算
+                    return 2 + costs[tree.getA(node)] + costs[tree.getB(node)];
+                }
+                return 0;
+        }
+    }
+}
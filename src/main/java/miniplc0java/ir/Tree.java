@@ -0,0 +1,298 @@
+package miniplc0java.ir;
+
+import miniplc0java.analyser.Type;
+import miniplc0java.instruction.Operation;
+
+import java.util.Arrays;
+
+/**
+ * 一个函数体的带类型中间表示
+ * 节点以结构数组形式保存，每个节点只占若干基本类型数组中的一格，用下标引用，不存在的节点为 -1
+ * 块中的语句、调用的参数通过 next 串成链表
+ * 一个 Tree 可以 clear 后反复使用，分析完一个函数就降低为指令，数组留给下一个函数
+ *
+ * 各种类节点的字段：
+ * INT / DOUBLE          value 为整数值或 double 的原始位
+ * STRING                value 为字符串在全局变量表中的序号
+ * LOAD                  a 作用域（0全局，1参数，2局部），b 序号
+ * ASSIGN                a 作用域，b 序号，c 右值
+ * NEG / CAST            a 操作数，节点类型即结果类型
+ * ADD / SUB / MUL / DIV a 左操作数，b 右操作数
+ * SHL                   a 左操作数，b 移位的位数，只由代数化简产生，只用于整数
+ * GT ... NEQ            a 左操作数，b 右操作数，c 比较类型（Type 的序号），节点类型为 void
+ * CALL                  a 函数在全局变量表中的序号，b 第一个参数
+ * STDLIB                a 指令（Operation 的序号），b 第一个参数
+ * BLOCK                 a 第一条语句，b 最后一条语句
+ * IF                    a 条件，b then 块，c else 块或 if 语句
+ * WHILE                 a 条件，b 循环体
+ * RETURN                a 返回值
+ * BREAK / CONTINUE      无
+ */
+public class Tree {
+    private static final Type[] TYPES = Type.values();
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    // NodeKind 的序号
+    byte[] kinds;
+    // Type 的序号
+    byte[] types;
+    int[] a;
+    int[] b;
+    int[] c;
+    int[] next;
+    long[] values;
+
+    int size = 0;
+
+    public Tree() {
+        this(256);
+    }
+
+    public Tree(int capacity) {
+        this.kinds = new byte[capacity];
+        this.types = new byte[capacity];
+        this.a = new int[capacity];
+        this.b = new int[capacity];
+        this.c = new int[capacity];
+        this.next = new int[capacity];
+        this.values = new long[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 添加一个节点，返回它的下标
+     */
+    public int add(NodeKind kind, Type type, int a, int b, int c) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            types = Arrays.copyOf(types, capacity);
+            this.a = Arrays.copyOf(this.a, capacity);
+            this.b = Arrays.copyOf(this.b, capacity);
+            this.c = Arrays.copyOf(this.c, capacity);
+            next = Arrays.copyOf(next, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int node = size++;
+        kinds[node] = (byte) kind.ordinal();
+        types[node] = (byte) type.ordinal();
+        this.a[node] = a;
+        this.b[node] = b;
+        this.c[node] = c;
+        next[node] = -1;
+        values[node] = 0;
+        return node;
+    }
+
+    public int addInt(long value) {
+        int node = add(NodeKind.INT, Type.int_ty, -1, -1, -1);
+        values[node] = value;
+        return node;
+    }
+
+    public int addDouble(double value) {
+        int node = add(NodeKind.DOUBLE, Type.double_ty, -1, -1, -1);
+        values[node] = Double.doubleToRawLongBits(value);
+        return node;
+    }
+
+    public int addString(int order) {
+        int node = add(NodeKind.STRING, Type.string_ty, -1, -1, -1);
+        values[node] = order;
+        return node;
+    }
+
+    public int addLoad(int scope, int order, Type type) {
+        return add(NodeKind.LOAD, type, scope, order, -1);
+    }
+
+    public int addAssign(int scope, int order, int value) {
+        return add(NodeKind.ASSIGN, Type.void_ty, scope, order, value);
+    }
+
+    public int addCompare(NodeKind kind, Type operandType, int left, int right) {
+        return add(kind, Type.void_ty, left, right, operandType.ordinal());
+    }
+
+    public int addStdlib(Operation operation, Type type, int firstArg) {
+        return add(NodeKind.STDLIB, type, operation.ordinal(), firstArg, -1);
+    }
+
+    public int addBlock() {
+        return add(NodeKind.BLOCK, Type.void_ty, -1, -1, -1);
+    }
+
+    /**
+     * 在块的末尾添加一条语句
+     */
+    public void append(int block, int statement) {
+        if (a[block] == -1) {
+            a[block] = statement;
+        } else {
+            next[b[block]] = statement;
+        }
+        b[block] = statement;
+    }
+
+    /**
+     * 在块中的语句 statement 之后插入一条语句
+     */
+    public void insertAfter(int block, int statement, int inserted) {
+        next[inserted] = next[statement];
+        next[statement] = inserted;
+        if (b[block] == statement) {
+            b[block] = inserted;
+        }
+    }
+
+    /**
+     * 把 node 原地改为 INT 或 DOUBLE 常量，节点类型不变，原来的操作数不再被引用
+     */
+    public void setConstant(int node, NodeKind kind, long value) {
+        kinds[node] = (byte) kind.ordinal();
+        a[node] = -1;
+        b[node] = -1;
+        c[node] = -1;
+        values[node] = value;
+    }
+
+    /**
+     * 把 node 原地改为以 a、b 为操作数的 kind 节点，节点类型和 next 不变，一元运算的 b 为 -1
+     */
+    public void setOperator(int node, NodeKind kind, int a, int b) {
+        kinds[node] = (byte) kind.ordinal();
+        this.a[node] = a;
+        this.b[node] = b;
+        c[node] = -1;
+    }
+
+    /**
+     * 把 node 复制为一个新节点，再把 node 原地改为读取局部变量 order，节点类型和 next 不变
+     *
+     * @return 复制出的节点，它引用 node 原来的操作数
+     */
+    public int moveToLocal(int node, int order) {
+        int copy = add(getKind(node), getType(node), a[node], b[node], c[node]);
+        values[copy] = values[node];
+        setLocal(node, order);
+        return copy;
+    }
+
+    /**
+     * 把 node 原地改为读取局部变量 order，节点类型和 next 不变，原来的操作数不再被引用
+     */
+    public void setLocal(int node, int order) {
+        kinds[node] = (byte) NodeKind.LOAD.ordinal();
+        a[node] = 2;
+        b[node] = order;
+        c[node] = -1;
+    }
+
+    /**
+     * 把 node 原地改为 other 的内容，node 在所在链表中的位置不变，other 不再被引用
+     */
+    public void replace(int node, int other) {
+        kinds[node] = kinds[other];
+        types[node] = types[other];
+        a[node] = a[other];
+        b[node] = b[other];
+        c[node] = c[other];
+        values[node] = values[other];
+    }
+
+    /**
+     * 两个表达式的结构、类型和常量完全相同，只比较没有调用和赋值的表达式，遇到其他节点返回 false
+     */
+    public boolean isSameExpression(int x, int y) {
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = x;
+        stack[depth++] = y;
+        while (depth > 0) {
+            int right = stack[--depth];
+            int left = stack[--depth];
+            NodeKind kind = getKind(left);
+            if (kind != getKind(right) || getType(left) != getType(right) || getLong(left) != getLong(right)) {
+                return false;
+            }
+            if (kind == NodeKind.LOAD) {
+                if (getA(left) != getA(right) || getB(left) != getB(right)) {
+                    return false;
+                }
+            } else if (kind == NodeKind.NEG || kind == NodeKind.CAST || kind.isArithmetic() || kind.isComparison()) {
+                if (kind.isComparison() && getC(left) != getC(right)) {
+                    return false;
+                }
+                if (depth + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[depth++] = getA(left);
+                stack[depth++] = getA(right);
+                if (kind != NodeKind.NEG && kind != NodeKind.CAST) {
+                    stack[depth++] = getB(left);
+                    stack[depth++] = getB(right);
+                }
+            } else if (kind != NodeKind.INT && kind != NodeKind.DOUBLE && kind != NodeKind.STRING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public NodeKind getKind(int node) {
+        return NodeKind.VALUES[kinds[node]];
+    }
+
+    public Type getType(int node) {
+        return TYPES[types[node]];
+    }
+
+    public int getA(int node) {
+        return a[node];
+    }
+
+    public int getB(int node) {
+        return b[node];
+    }
+
+    public int getC(int node) {
+        return c[node];
+    }
+
+    public int getNext(int node) {
+        return next[node];
+    }
+
+    public void setNext(int node, int next) {
+        this.next[node] = next;
+    }
+
+    public long getLong(int node) {
+        return values[node];
+    }
+
+    public double getDouble(int node) {
+        return Double.longBitsToDouble(values[node]);
+    }
+
+    /**
+     * 比较节点的比较类型
+     */
+    public Type getCompareType(int node) {
+        return TYPES[c[node]];
+    }
+
+    /**
+     * STDLIB 节点对应的指令
+     */
+    public Operation getOperation(int node) {
+        return OPERATIONS[a[node]];
+    }
+}
@@ -0,0 +1,65 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基本块：只能从第一条指令进入、从最后一条指令离开的一段指令
+ * 最后一条指令是分支时，它的参数在块内没有意义，跳转目标由 target 表示，重新排成指令序列时再换算成偏移
+ */
+public class BasicBlock {
+    List<Instruction> instructions = new ArrayList<>();
+    // 分支跳转到的块，最后一条指令不是分支时为 null
+    BasicBlock target;
+    // 顺序执行到的块，以 br、ret、panic 结束或是最后一块时为 null
+    BasicBlock next;
+    // 所有能跳转或顺序执行到本块的块
+    List<BasicBlock> predecessors = new ArrayList<>();
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public BasicBlock getTarget() {
+        return target;
+    }
+
+    public BasicBlock getNext() {
+        return next;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * 后继块，条件分支的顺序执行在前，跳转在后
+     */
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> successors = new ArrayList<>(2);
+        if (next != null) {
+            successors.add(next);
+        }
+        if (target != null) {
+            successors.add(target);
+        }
+        return successors;
+    }
+
+    /**
+     * 最后一条指令，空块为 null
+     */
+    public Instruction getLast() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    /**
+     * 块中只有一条指令且它的操作为 opt
+     */
+    public boolean isOnly(Operation opt) {
+        return instructions.size() == 1 && instructions.get(0).getOpt() == opt;
+    }
+}
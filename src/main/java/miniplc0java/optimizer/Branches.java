@@ -0,0 +1,65 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.List;
+
+/**
+ * 分支指令偏移的换算
+ * o0 的 br / brfalse / brtrue 的参数是相对于下一条指令的偏移，增删指令前先换成目标的绝对下标，
+ * 改完之后再按新的位置换回相对偏移
+ */
+public class Branches {
+
+    public static boolean isBranch(Operation opt) {
+        return opt == Operation.br || opt == Operation.brfalse || opt == Operation.brtrue;
+    }
+
+    public static boolean isBranch(Instruction instruction) {
+        return isBranch(instruction.getOpt());
+    }
+
+    /**
+     * 分支指令的目标，x 为相对偏移时使用
+     */
+    public static int target(List<Instruction> body, int i) {
+        return i + 1 + (int) body.get(i).getX();
+    }
+
+    /**
+     * 把所有分支指令的参数换成目标的绝对下标
+     */
+    public static void toAbsolute(List<Instruction> body) {
+        for (int i = 0; i < body.size(); i++) {
+            Instruction instruction = body.get(i);
+            if (isBranch(instruction)) {
+                instruction.setX(target(body, i));
+            }
+        }
+    }
+
+    /**
+     * 把所有分支指令的参数从绝对下标换回相对偏移
+     */
+    public static void toRelative(List<Instruction> body) {
+        for (int i = 0; i < body.size(); i++) {
+            Instruction instruction = body.get(i);
+            if (isBranch(instruction)) {
+                instruction.setX((int) instruction.getX() - i - 1);
+            }
+        }
+    }
+
+    /**
+     * out 中分支指令的参数是旧指令序列中的绝对下标，按 newIndex（旧下标 -> 新下标）换算成 out 中的相对偏移
+     */
+    public static void relocate(List<Instruction> out, int[] newIndex) {
+        for (int i = 0; i < out.size(); i++) {
+            Instruction instruction = out.get(i);
+            if (isBranch(instruction)) {
+                instruction.setX(newIndex[(int) instruction.getX()] - i - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolEntry;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全程序调用图
+ * 从 _start 出发沿 callname / call 找到所有可能执行的函数，再收集这些函数通过 globa 和字符串 push 引用的全局变量
+ * eliminate 删掉其余的函数和全局变量，剩下的全局变量按原来的顺序重新编号，函数名和指令中的序号随之修改
+ */
+public class CallGraph {
+    final ConstantPool constantPool;
+    final Map<String, FunctionTable> functionTables;
+    // 按函数表中的顺序排列，call 的参数即这里的下标
+    final List<FunctionTable> functions;
+    // 全局变量序号 -> 以它为名字的函数的下标，不是函数名时为 -1
+    final int[] functionByName;
+    // 每个函数直接调用的函数的下标，同一个函数只记一次
+    final List<int[]> callees = new ArrayList<>();
+    // 每个函数是否可能从 _start 执行到
+    final boolean[] reachable;
+    // 每个全局变量是否被可能执行的函数用到
+    final boolean[] used;
+    // 全局变量的序号与它在常量池中的位置一致，且指令引用的序号都存在，否则不能安全地重新编号
+    boolean consistent = true;
+
+    public CallGraph(ConstantPool constantPool, Map<String, FunctionTable> functionTables) {
+        this.constantPool = constantPool;
+        this.functionTables = functionTables;
+        this.functions = new ArrayList<>(functionTables.values());
+
+        List<SymbolEntry> globals = constantPool.getGlobals();
+        for (int i = 0; i < globals.size(); i++) {
+            if (globals.get(i).getOrder() != i) {
+                consistent = false;
+            }
+        }
+        functionByName = new int[globals.size()];
+        Arrays.fill(functionByName, -1);
+        for (int i = 0; i < functions.size(); i++) {
+            int order = functions.get(i).getOrder();
+            if (order < functionByName.length) {
+                functionByName[order] = i;
+            } else {
+                consistent = false;
+            }
+        }
+
+        // 建立调用边，seen 记录当前函数已经记过的被调函数
+        int[] seen = new int[functions.size()];
+        int[] buffer = new int[functions.size()];
+        for (int i = 0; i < functions.size(); i++) {
+            int count = 0;
+            for (Instruction instruction : functions.get(i).getBody()) {
+                int callee = callee(instruction);
+                if (callee != -1 && seen[callee] != i + 1) {
+                    seen[callee] = i + 1;
+                    buffer[count++] = callee;
+                }
+            }
+            callees.add(Arrays.copyOf(buffer, count));
+        }
+
+        reachable = new boolean[functions.size()];
+        FunctionTable start = functionTables.get("_start");
+        if (start == null) {
+            Arrays.fill(reachable, true);
+        } else {
+            int[] stack = new int[functions.size()];
+            int depth = 0;
+            int index = functions.indexOf(start);
+            reachable[index] = true;
+            stack[depth++] = index;
+            while (depth > 0) {
+                for (int callee : callees.get(stack[--depth])) {
+                    if (!reachable[callee]) {
+                        reachable[callee] = true;
+                        stack[depth++] = callee;
+                    }
+                }
+            }
+        }
+
+        used = new boolean[globals.size()];
+        for (int i = 0; i < functions.size(); i++) {
+            if (!reachable[i]) {
+                continue;
+            }
+            markUsed(functions.get(i).getOrder());
+            for (Instruction instruction : functions.get(i).getBody()) {
+                if (instruction.getOpt() == Operation.globa || instruction.isString()) {
+                    markUsed(((Number) instruction.getX()).intValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * 指令调用的函数的下标，不是调用或者找不到函数时为 -1
+     */
+    private int callee(Instruction instruction) {
+        if (instruction.getOpt() == Operation.callname) {
+            int order = ((Number) instruction.getX()).intValue();
+            if (order >= 0 && order < functionByName.length && functionByName[order] != -1) {
+                return functionByName[order];
+            }
+            consistent = false;
+        } else if (instruction.getOpt() == Operation.call) {
+            int index = ((Number) instruction.getX()).intValue();
+            if (index >= 0 && index < functions.size()) {
+                return index;
+            }
+            consistent = false;
+        }
+        return -1;
+    }
+
+    private void markUsed(int order) {
+        if (order >= 0 && order < used.length) {
+            used[order] = true;
+        } else {
+            consistent = false;
+        }
+    }
+
+    private int indexOf(FunctionTable function) {
+        int order = function.getOrder();
+        if (order >= 0 && order < functionByName.length && functionByName[order] != -1
+                && functions.get(functionByName[order]) == function) {
+            return functionByName[order];
+        }
+        return functions.indexOf(function);
+    }
+
+    public boolean isReachable(FunctionTable function) {
+        int index = indexOf(function);
+        return index != -1 && reachable[index];
+    }
+
+    /**
+     * 函数直接调用的函数
+     */
+    public List<FunctionTable> getCallees(FunctionTable function) {
+        List<FunctionTable> result = new ArrayList<>();
+        int index = indexOf(function);
+        if (index != -1) {
+            for (int callee : callees.get(index)) {
+                result.add(functions.get(callee));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除不可达的函数和用不到的全局变量，并重新编号
+     * 常量池与指令不一致时不做任何修改；修改之后这个调用图不再可用
+     *
+     * @return 是否做了修改
+     */
+    public boolean eliminate() {
+        if (!consistent) {
+            return false;
+        }
+        int[] newOrder = new int[used.length];
+        int globalCount = 0;
+        for (int i = 0; i < used.length; i++) {
+            newOrder[i] = used[i] ? globalCount++ : -1;
+        }
+        int[] newIndex = new int[functions.size()];
+        int functionCount = 0;
+        for (int i = 0; i < functions.size(); i++) {
+            newIndex[i] = reachable[i] ? functionCount++ : -1;
+        }
+
+        for (int i = 0; i < functions.size(); i++) {
+            if (!reachable[i]) {
+                continue;
+            }
+            FunctionTable function = functions.get(i);
+            function.setOrder(newOrder[function.getOrder()]);
+            for (Instruction instruction : function.getBody()) {
+                Operation opt = instruction.getOpt();
+                if (opt == Operation.globa || opt == Operation.callname || instruction.isString()) {
+                    renumber(instruction, newOrder);
+                } else if (opt == Operation.call) {
+                    renumber(instruction, newIndex);
+                }
+            }
+        }
+
+        constantPool.retain(symbolEntry -> used[symbolEntry.getOrder()]);
+        for (SymbolEntry symbolEntry : constantPool.getGlobals()) {
+            symbolEntry.setOrder(newOrder[symbolEntry.getOrder()]);
+        }
+        Iterator<FunctionTable> iterator = functionTables.values().iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            iterator.next();
+            if (!reachable[i]) {
+                iterator.remove();
+            }
+        }
+        return globalCount < used.length || functionCount < functions.size();
+    }
+
+    /**
+     * 按 mapping 修改指令的参数，保持参数原来的类型
+     */
+    private static void renumber(Instruction instruction, int[] mapping) {
+        Object x = instruction.getX();
+        int value = mapping[((Number) x).intValue()];
+        if (x instanceof Long) {
+            instruction.setX((long) value);
+        } else {
+            instruction.setX(value);
+        }
+    }
+}
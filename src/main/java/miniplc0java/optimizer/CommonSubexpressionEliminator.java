@@ -0,0 +1,464 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基本块内的公共子表达式消除
+ * 在块中模拟操作数栈做值编号，栈上每个值记下编号和算出它的连续指令段：
+ * 常量和地址按指令本身编号，纯运算按操作和操作数的编号编号，load64 按地址的编号编号，
+ * 变量被 store64 赋值之后的读取换新的编号；调用之后全局变量的读取换新的编号，
+ * 地址不明的 store64 和不认识的指令之后所有读取都换新的编号
+ * 同一个值在块中算了多次时，后面的计算换成读取：上一次算出的值正好在栈顶时换成 dup，
+ * 否则第一次计算前后加上 loca t 和 store64; loca t; load64，把值存入新的局部变量槽位，后面换成 loca t; load64
+ * 存入槽位要多 4 条指令，只有省下的指令更多时才这样做
+ * 整数除数为 0 时第一次计算就已经 panic，后面的计算换成读取不改变行为
+ */
+public class CommonSubexpressionEliminator {
+    // 没有替换、替换为 dup
+    private static final int NONE = -2;
+    private static final int DUP = -1;
+
+    // 值编号：地址、运算和读取把操作和两个参数各 29 位压成一个 long 作为键，常量按值
+    Map<Long, Integer> numbers = new HashMap<>();
+    Map<Object, Integer> constants = new HashMap<>();
+    int nextNumber;
+    // 按值编号：地址值对应的变量（loca / arga / globa 的操作和序号），不是地址时为 -1；作为指令段出现的次数
+    long[] variables = new long[64];
+    int[] counts = new int[64];
+    boolean repeated;
+    // 戳取自值编号，越新越大：变量 -> 最近一次 store64，以及最近一次地址不明的写入和调用
+    // load64 的键带上与这个变量有关的最新的戳，写入之后的读取就有了新的编号
+    Map<Long, Integer> stamps = new HashMap<>();
+    int memoryStamp;
+    int callStamp;
+
+    // 模拟的操作数栈：值编号，算出它的指令段 [start, end)，start 为 -1 表示不是一段连续的纯运算
+    int[] values = new int[16];
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int depth;
+
+    // 算出了一个值的指令段：值编号和 [start, end)，按 end 递增
+    int[] occurrenceValues = new int[64];
+    int[] occurrenceStarts = new int[64];
+    int[] occurrenceEnds = new int[64];
+    int occurrenceCount;
+
+    /**
+     * 原地处理一个函数体
+     *
+     * @param locals 函数原有的局部变量数，存放公共子表达式的槽位排在它之后
+     * @return 加上新槽位后的局部变量数
+     */
+    public static int eliminate(List<Instruction> body, int locals) {
+        int size = body.size();
+        if (size == 0) {
+            return locals;
+        }
+        Branches.toAbsolute(body);
+        // 分支目标和分支、ret、panic 的下一条指令开始新的基本块
+        boolean[] leaders = new boolean[size + 1];
+        for (int i = 0; i < size; i++) {
+            Instruction instruction = body.get(i);
+            Operation opt = instruction.getOpt();
+            if (Branches.isBranch(instruction)) {
+                leaders[(int) instruction.getX()] = true;
+                leaders[i + 1] = true;
+            } else if (opt == Operation.ret || opt == Operation.panic) {
+                leaders[i + 1] = true;
+            }
+        }
+
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        // 分支都在块的末尾，目标都是块首，只需要记下块首的新下标
+        int[] newIndex = new int[size + 1];
+        List<Instruction> out = new ArrayList<>(size);
+        List<Instruction> block = new ArrayList<>();
+        int peak = locals;
+        boolean changed = false;
+        int from = 0;
+        for (int to = 1; to <= size; to++) {
+            if (!leaders[to] && to < size) {
+                continue;
+            }
+            block.clear();
+            block.addAll(body.subList(from, to));
+            // 槽位只在块内使用，各块从同一个位置开始分配
+            int slot = locals;
+            int next;
+            while ((next = eliminator.eliminateRound(block, slot)) != -1) {
+                slot = next;
+                changed = true;
+            }
+            peak = Math.max(peak, slot);
+            newIndex[from] = out.size();
+            out.addAll(block);
+            from = to;
+        }
+        newIndex[size] = out.size();
+        if (changed) {
+            Branches.relocate(out, newIndex);
+            body.clear();
+            body.addAll(out);
+        } else {
+            Branches.toRelative(body);
+        }
+        return peak;
+    }
+
+    /**
+     * 对一个块的指令做一轮消除，使用从 slot 开始的槽位；替换后的指令中可能出现新的公共子表达式，由下一轮处理
+     *
+     * @return 下一个空闲的槽位，没有可以消除的计算时返回 -1
+     */
+    private int eliminateRound(List<Instruction> instructions, int slot) {
+        int size = instructions.size();
+        analyse(instructions);
+        if (!repeated) {
+            return -1;
+        }
+
+        // 按值编号分组，组内按出现顺序
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int k = 0; k < occurrenceCount; k++) {
+            if (counts[occurrenceValues[k]] > 1) {
+                groups.computeIfAbsent(occurrenceValues[k], key -> new ArrayList<>()).add(k);
+            }
+        }
+        List<List<Integer>> candidates = new ArrayList<>(groups.values());
+        // 指令段之间只有嵌套和不相交两种关系，先处理长的即先处理外层
+        candidates.sort(Comparator.comparingInt(group -> occurrenceStarts[group.get(0)] - occurrenceEnds[group.get(0)]));
+
+        // 被替换掉的指令，每个位置开始的替换（NONE、DUP 或槽位）和它的结尾，以及存入槽位的指令段
+        boolean[] removed = new boolean[size];
+        boolean[] wrapped = new boolean[size];
+        int[] replacements = new int[size];
+        int[] replacementEnds = new int[size];
+        Arrays.fill(replacements, NONE);
+        List<int[]> wraps = new ArrayList<>();
+        boolean chosen = false;
+        for (List<Integer> group : candidates) {
+            List<Integer> kept = new ArrayList<>();
+            for (int k : group) {
+                if (!removed[occurrenceStarts[k]]) {
+                    kept.add(k);
+                }
+            }
+            if (kept.size() < 2) {
+                continue;
+            }
+            int length = occurrenceEnds[kept.get(0)] - occurrenceStarts[kept.get(0)];
+            int saved = 0;
+            boolean needsSlot = false;
+            for (int j = 1; j < kept.size(); j++) {
+                int start = occurrenceStarts[kept.get(j)];
+                if (isOnTop(kept.get(j - 1), start, wrapped)) {
+                    saved += length - 1;
+                } else {
+                    saved += length - 2;
+                    needsSlot = true;
+                }
+            }
+            if (saved - (needsSlot ? 4 : 0) <= 0) {
+                continue;
+            }
+            for (int j = 1; j < kept.size(); j++) {
+                int start = occurrenceStarts[kept.get(j)];
+                int end = occurrenceEnds[kept.get(j)];
+                replacements[start] = isOnTop(kept.get(j - 1), start, wrapped) ? DUP : slot;
+                replacementEnds[start] = end;
+                Arrays.fill(removed, start, end, true);
+            }
+            chosen = true;
+            if (needsSlot) {
+                int first = kept.get(0);
+                wraps.add(new int[]{occurrenceStarts[first], occurrenceEnds[first], slot});
+                wrapped[occurrenceStarts[first]] = true;
+                slot++;
+            }
+        }
+        if (!chosen) {
+            return -1;
+        }
+        rewrite(instructions, replacements, replacementEnds, wraps);
+        return slot;
+    }
+
+    /**
+     * 第 previous 个指令段算出的值在 start 处是否就在栈顶：两段紧挨着，且 start 处没有先压入槽位地址
+     */
+    private boolean isOnTop(int previous, int start, boolean[] wrapped) {
+        return occurrenceEnds[previous] == start && !wrapped[start];
+    }
+
+    /**
+     * 按选定的替换和存入槽位的指令段重写块中的指令
+     * 同一位置开始的存入外层在前，同一位置结束的存入内层在前
+     */
+    private static void rewrite(List<Instruction> instructions, int[] replacements, int[] replacementEnds, List<int[]> wraps) {
+        int size = instructions.size();
+        List<int[]> byStart = new ArrayList<>(wraps);
+        byStart.sort(Comparator.<int[]>comparingInt(wrap -> wrap[0]).thenComparingInt(wrap -> -wrap[1]));
+        List<int[]> byEnd = new ArrayList<>(wraps);
+        byEnd.sort(Comparator.<int[]>comparingInt(wrap -> wrap[1]).thenComparingInt(wrap -> -wrap[0]));
+        int nextStart = 0;
+        int nextEnd = 0;
+        List<Instruction> out = new ArrayList<>(size);
+        int i = 0;
+        while (i < size) {
+            while (nextStart < byStart.size() && byStart.get(nextStart)[0] == i) {
+                out.add(new Instruction(Operation.loca, byStart.get(nextStart)[2]));
+                nextStart++;
+            }
+            if (replacements[i] == DUP) {
+                out.add(new Instruction(Operation.dup));
+                i = replacementEnds[i];
+            } else if (replacements[i] != NONE) {
+                out.add(new Instruction(Operation.loca, replacements[i]));
+                out.add(new Instruction(Operation.load64));
+                i = replacementEnds[i];
+            } else {
+                out.add(instructions.get(i));
+                i++;
+            }
+            while (nextEnd < byEnd.size() && byEnd.get(nextEnd)[1] == i) {
+                int slot = byEnd.get(nextEnd)[2];
+                out.add(new Instruction(Operation.store64));
+                out.add(new Instruction(Operation.loca, slot));
+                out.add(new Instruction(Operation.load64));
+                nextEnd++;
+            }
+        }
+        instructions.clear();
+        instructions.addAll(out);
+    }
+
+    /**
+     * 模拟执行块中的指令，给栈上的值编号，记录算出值的连续纯运算指令段
+     */
+    private void analyse(List<Instruction> instructions) {
+        numbers.clear();
+        constants.clear();
+        stamps.clear();
+        // 0 留作没有写入过的戳
+        nextNumber = 1;
+        repeated = false;
+        memoryStamp = 0;
+        callStamp = 0;
+        depth = 0;
+        occurrenceCount = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            Operation opt = instruction.getOpt();
+            switch (opt) {
+                case push:
+                    if (instruction.isString()) {
+                        operate(i, 0, fresh());
+                    } else {
+                        Object x = instruction.getX();
+                        operate(i, 0, constant(x instanceof Double ? x : (Object) ((Number) x).longValue()));
+                    }
+                    break;
+                case loca:
+                case arga:
+                case globa:
+                    int slot = ((Number) instruction.getX()).intValue();
+                    int address = number(opt, slot, 0);
+                    variables[address] = (long) opt.ordinal() << 32 | slot;
+                    operate(i, 0, address);
+                    break;
+                case load64:
+                    long variable = depth > 0 ? variables[values[depth - 1]] : -1;
+                    if (variable == -1) {
+                        operate(i, 1, fresh());
+                    } else {
+                        int stamp = Math.max(stamps.getOrDefault(variable, 0), memoryStamp);
+                        if (variable >>> 32 == Operation.globa.ordinal()) {
+                            stamp = Math.max(stamp, callStamp);
+                        }
+                        operate(i, 1, number(opt, values[depth - 1], stamp));
+                    }
+                    break;
+                case store64:
+                    pop();
+                    // pop 可能分配新编号并扩大 variables，先弹出再取下标
+                    int stored = pop();
+                    long target = variables[stored];
+                    if (target == -1) {
+                        memoryStamp = fresh();
+                    } else {
+                        stamps.put(target, fresh());
+                    }
+                    break;
+                case addi:
+                case subi:
+                case muli:
+                case divi:
+                case addf:
+                case subf:
+                case mulf:
+                case divf:
+                case divu:
+                case shl:
+                case shr:
+                case shrl:
+                case and:
+                case or:
+                case xor:
+                case cmpi:
+                case cmpu:
+                case cmpf:
+                    operate(i, 2, number(opt, depth > 1 ? values[depth - 2] : fresh(), depth > 0 ? values[depth - 1] : fresh()));
+                    break;
+                case negi:
+                case negf:
+                case itof:
+                case ftoi:
+                case not:
+                case setlt:
+                case setgt:
+                    operate(i, 1, number(opt, depth > 0 ? values[depth - 1] : fresh(), 0));
+                    break;
+                case dup:
+                    int top = depth > 0 ? values[depth - 1] : fresh();
+                    pushValue(top, -1, -1);
+                    break;
+                case pop:
+                case brfalse:
+                case brtrue:
+                case printi:
+                case printc:
+                case printf:
+                case prints:
+                    pop();
+                    break;
+                case popn:
+                    for (long n = ((Number) instruction.getX()).longValue(); n > 0; n--) {
+                        pop();
+                    }
+                    break;
+                case stackalloc:
+                    for (long n = ((Number) instruction.getX()).longValue(); n > 0; n--) {
+                        pushValue(fresh(), -1, -1);
+                    }
+                    break;
+                case scani:
+                case scanc:
+                case scanf:
+                    pushValue(fresh(), -1, -1);
+                    break;
+                case call:
+                case callname:
+                    // 不知道被调函数的参数个数，栈上的值都作废；被调函数可能给全局变量赋值
+                    depth = 0;
+                    callStamp = fresh();
+                    break;
+                case nop:
+                case br:
+                case ret:
+                case println:
+                case panic:
+                    break;
+                default:
+                    depth = 0;
+                    memoryStamp = fresh();
+            }
+        }
+    }
+
+    /**
+     * 地址、运算或读取的值编号，a、b 为序号、操作数编号或戳
+     */
+    private int number(Operation opt, long a, long b) {
+        long key = (long) opt.ordinal() << 58 | a << 29 | b;
+        Integer number = numbers.get(key);
+        if (number == null) {
+            number = fresh();
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
+    private int constant(Object x) {
+        Integer number = constants.get(x);
+        if (number == null) {
+            number = fresh();
+            constants.put(x, number);
+        }
+        return number;
+    }
+
+    /**
+     * 分配一个新的值编号
+     */
+    private int fresh() {
+        if (nextNumber == variables.length) {
+            variables = Arrays.copyOf(variables, nextNumber * 2);
+            counts = Arrays.copyOf(counts, nextNumber * 2);
+        }
+        variables[nextNumber] = -1;
+        counts[nextNumber] = 0;
+        return nextNumber++;
+    }
+
+    /**
+     * 第 i 条指令从栈上取 arity 个操作数，压入编号为 number 的值
+     * 操作数的指令段首尾相接并一直连到第 i 条指令时，结果的指令段从第一个操作数开始，否则不是连续的纯运算
+     */
+    private void operate(int i, int arity, int number) {
+        // 从最后一个操作数往前检查首尾相接
+        int start = i;
+        for (int k = 1; k <= arity && start != -1; k++) {
+            start = depth >= k && ends[depth - k] == start ? starts[depth - k] : -1;
+        }
+        for (int k = 0; k < arity; k++) {
+            pop();
+        }
+        pushValue(number, start, start == -1 ? -1 : i + 1);
+        if (start != -1 && i + 1 - start > 1) {
+            if (occurrenceCount == occurrenceValues.length) {
+                occurrenceValues = Arrays.copyOf(occurrenceValues, occurrenceCount * 2);
+                occurrenceStarts = Arrays.copyOf(occurrenceStarts, occurrenceCount * 2);
+                occurrenceEnds = Arrays.copyOf(occurrenceEnds, occurrenceCount * 2);
+            }
+            if (++counts[number] > 1) {
+                repeated = true;
+            }
+            occurrenceValues[occurrenceCount] = number;
+            occurrenceStarts[occurrenceCount] = start;
+            occurrenceEnds[occurrenceCount] = i + 1;
+            occurrenceCount++;
+        }
+    }
+
+    private void pushValue(int number, int start, int end) {
+        if (depth == values.length) {
+            values = Arrays.copyOf(values, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            ends = Arrays.copyOf(ends, depth * 2);
+        }
+        values[depth] = number;
+        starts[depth] = start;
+        ends[depth] = end;
+        depth++;
+    }
+
+    /**
+     * 弹出栈顶的值，返回它的编号；栈上没有记录的值（块开始之前压入的）返回一个新编号
+     */
+    private int pop() {
+        if (depth == 0) {
+            return fresh();
+        }
+        return values[--depth];
+    }
+}
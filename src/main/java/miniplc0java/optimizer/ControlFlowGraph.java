@@ -0,0 +1,167 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 函数体的控制流图
+ * 分支目标和分支、ret、panic 的下一条指令开始新的基本块，块之间按 br / brfalse / brtrue 和顺序执行连边
+ * 各个优化修改块和边之后，linearize 按 blocks 的顺序重新排成指令序列，顺序执行的后继不相邻时补一条 br，
+ * 跳到紧接着的块的 br 省略
+ */
+public class ControlFlowGraph {
+    // 第一块是入口
+    List<BasicBlock> blocks = new ArrayList<>();
+
+    public ControlFlowGraph(List<Instruction> body) {
+        int size = body.size();
+        Branches.toAbsolute(body);
+        boolean[] leaders = new boolean[size + 1];
+        leaders[0] = true;
+        for (int i = 0; i < size; i++) {
+            Instruction instruction = body.get(i);
+            if (Branches.isBranch(instruction)) {
+                leaders[(int) instruction.getX()] = true;
+                leaders[i + 1] = true;
+            } else if (endsFlow(instruction.getOpt())) {
+                leaders[i + 1] = true;
+            }
+        }
+
+        // 指令下标 -> 所在块
+        BasicBlock[] blockAt = new BasicBlock[size + 1];
+        BasicBlock block = null;
+        for (int i = 0; i < size; i++) {
+            if (leaders[i]) {
+                block = new BasicBlock();
+                blocks.add(block);
+            }
+            blockAt[i] = block;
+            block.instructions.add(body.get(i));
+        }
+
+        for (int k = 0; k < blocks.size(); k++) {
+            block = blocks.get(k);
+            Instruction last = block.getLast();
+            if (last == null) {
+                continue;
+            }
+            Operation opt = last.getOpt();
+            if (Branches.isBranch(opt)) {
+                int target = (int) last.getX();
+                // 跳到函数末尾之后的分支没有目标块，只可能出现在没有 ret 的函数体中，补一个空块
+                if (target == size && blockAt[size] == null) {
+                    blockAt[size] = new BasicBlock();
+                    blocks.add(blockAt[size]);
+                }
+                block.target = blockAt[target];
+            }
+            if (opt != Operation.br && !endsFlow(opt) && k + 1 < blocks.size()) {
+                block.next = blocks.get(k + 1);
+            }
+        }
+        computePredecessors();
+    }
+
+    private static boolean endsFlow(Operation opt) {
+        return opt == Operation.ret || opt == Operation.panic;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * 按当前的边重新计算每块的前驱
+     */
+    public void computePredecessors() {
+        for (BasicBlock block : blocks) {
+            block.predecessors.clear();
+        }
+        for (BasicBlock block : blocks) {
+            if (block.next != null) {
+                block.next.predecessors.add(block);
+            }
+            if (block.target != null && block.target != block.next) {
+                block.target.predecessors.add(block);
+            }
+        }
+    }
+
+    /**
+     * 删除从入口出发到达不了的块
+     *
+     * @return 删掉的块数
+     */
+    public int removeUnreachable() {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        List<BasicBlock> stack = new ArrayList<>();
+        Set<BasicBlock> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        stack.add(getEntry());
+        reachable.add(getEntry());
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.remove(stack.size() - 1);
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (reachable.add(successor)) {
+                    stack.add(successor);
+                }
+            }
+        }
+        int size = blocks.size();
+        blocks.removeIf(block -> !reachable.contains(block));
+        computePredecessors();
+        return size - blocks.size();
+    }
+
+    /**
+     * 按 blocks 的顺序排成指令序列，写回 body
+     */
+    public void linearize(List<Instruction> body) {
+        // 先确定每块的起始下标：块的最后一条 br 跳到紧接着的块时省略，顺序执行的后继不相邻时补一条 br
+        int count = blocks.size();
+        int[] starts = new int[count + 1];
+        boolean[] dropLast = new boolean[count];
+        boolean[] addJump = new boolean[count];
+        Map<BasicBlock, Integer> indexOf = new IdentityHashMap<>();
+        for (int k = 0; k < count; k++) {
+            indexOf.put(blocks.get(k), k);
+        }
+        for (int k = 0; k < count; k++) {
+            BasicBlock block = blocks.get(k);
+            BasicBlock following = k + 1 < count ? blocks.get(k + 1) : null;
+            Instruction last = block.getLast();
+            dropLast[k] = last != null && last.getOpt() == Operation.br && block.target == following;
+            addJump[k] = block.next != null && block.next != following;
+            starts[k + 1] = starts[k] + block.instructions.size() - (dropLast[k] ? 1 : 0) + (addJump[k] ? 1 : 0);
+        }
+
+        body.clear();
+        for (int k = 0; k < count; k++) {
+            BasicBlock block = blocks.get(k);
+            int end = block.instructions.size() - (dropLast[k] ? 1 : 0);
+            for (int i = 0; i < end; i++) {
+                Instruction instruction = block.instructions.get(i);
+                if (i == block.instructions.size() - 1 && Branches.isBranch(instruction)) {
+                    instruction.setX(starts[indexOf.get(block.target)] - body.size() - 1);
+                }
+                body.add(instruction);
+            }
+            if (addJump[k]) {
+                body.add(new Instruction(Operation.br, starts[indexOf.get(block.next)] - body.size() - 1));
+            }
+        }
+    }
+}
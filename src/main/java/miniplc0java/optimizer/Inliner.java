@@ -0,0 +1,179 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.Type;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内联小函数
+ * 降低调用时，被调函数已经降低完、不递归且指令数不超过预算，就把它的函数体复制到调用处：
+ * 返回值、参数和被调函数的局部变量放到调用者局部变量之后的新槽位中，
+ * 参数逐个存入对应槽位，arga / loca 换成新槽位的 loca，ret 换成跳到复制的函数体之后的 br，最后读出返回值；
+ * 只读参数的实参是常量或调用者的变量时不存入槽位，直接替换读取；函数体以 return 结束时返回值直接留在栈上
+ * C0 的函数只能调用已经声明的函数，所以唯一的递归是调用自己，降低到一半的函数不会被内联
+ */
+public class Inliner {
+    public static final int DEFAULT_BUDGET = 32;
+
+    // 被调函数的指令数上限，为 0 时不内联
+    int budget;
+    // 函数在全局变量表中的序号 -> 函数
+    Map<Integer, FunctionTable> functions = new HashMap<>();
+
+    public Inliner(int budget) {
+        this.budget = budget;
+    }
+
+    public void setBudget(int budget) {
+        this.budget = budget;
+    }
+
+    public void addFunction(FunctionTable functionTable) {
+        functions.put(functionTable.getOrder(), functionTable);
+    }
+
+    /**
+     * 向 body 中降低对序号为 order 的函数的调用时，返回可以内联的被调函数，不能内联时返回 null
+     */
+    public FunctionTable inlinable(int order, List<Instruction> body) {
+        FunctionTable callee = functions.get(order);
+        if (callee == null || callee.getBody() == body) {
+            return null;
+        }
+        List<Instruction> calleeBody = callee.getBody();
+        if (calleeBody.isEmpty() || calleeBody.size() > budget) {
+            return null;
+        }
+        for (Instruction instruction : calleeBody) {
+            if (instruction.getOpt() == Operation.callname && ((Number) instruction.getX()).intValue() == order) {
+                return null;
+            }
+        }
+        return callee;
+    }
+
+    /**
+     * 返回值占据的槽位数
+     */
+    public static int returnSlots(FunctionTable callee) {
+        return callee.getType() == Type.void_ty ? 0 : 1;
+    }
+
+    /**
+     * 内联 callee 需要的槽位数：返回值、参数、局部变量
+     */
+    public static int frameSize(FunctionTable callee) {
+        return returnSlots(callee) + callee.getArgs() + callee.getLocals();
+    }
+
+    /**
+     * 第 index 个参数的槽位
+     */
+    public static int argSlot(FunctionTable callee, int base, int index) {
+        return base + returnSlots(callee) + index;
+    }
+
+    /**
+     * 第 index 个参数在 callee 中只被读取，没有被赋值
+     */
+    public static boolean isReadOnly(FunctionTable callee, int index) {
+        List<Instruction> calleeBody = callee.getBody();
+        Instruction address = new Instruction(Operation.arga, returnSlots(callee) + index);
+        for (int i = 0; i < calleeBody.size(); i++) {
+            if (calleeBody.get(i).equals(address)
+                    && (i + 1 == calleeBody.size() || calleeBody.get(i + 1).getOpt() != Operation.load64)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把 callee 的函数体复制到 body 末尾，它的槽位从 base 开始
+     * args[k] 不为 null 时第 k 个参数没有存入槽位，读取它的 arga; load64 直接换成 args[k]（常量或调用者的变量），
+     * 否则参数已经存好
+     * 函数体以唯一的 ret 结束、前面是返回值的 store64 且 arga 0 只出现一次时，去掉 arga 0 和最后的 store64; ret，
+     * 返回值直接留在栈上；否则返回值留在槽位 base 中
+     *
+     * @return 返回值是否留在了栈上
+     */
+    public static boolean expand(FunctionTable callee, int base, Instruction[][] args, List<Instruction> body) {
+        List<Instruction> calleeBody = callee.getBody();
+        int size = calleeBody.size();
+        int retSlots = returnSlots(callee);
+        int localBase = base + retSlots + callee.getArgs();
+        boolean keepResult = retSlots > 0 && keepsResult(calleeBody);
+
+        // 分支目标先记为被调函数中的绝对下标，复制完再按 newIndex 换算
+        int start = body.size();
+        int[] newIndex = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            newIndex[i] = body.size() - start;
+            Instruction instruction = calleeBody.get(i);
+            Operation opt = instruction.getOpt();
+            int x = instruction.getX() instanceof Number ? ((Number) instruction.getX()).intValue() : 0;
+            if (opt == Operation.arga) {
+                if (x < retSlots) {
+                    if (!keepResult) {
+                        body.add(new Instruction(Operation.loca, base + x));
+                    }
+                } else if (args[x - retSlots] != null) {
+                    for (Instruction argument : args[x - retSlots]) {
+                        body.add(argument.copy());
+                    }
+                    // 跳过后面的 load64
+                    i++;
+                    newIndex[i] = newIndex[i - 1];
+                } else {
+                    body.add(new Instruction(Operation.loca, base + x));
+                }
+            } else if (opt == Operation.loca) {
+                body.add(new Instruction(Operation.loca, localBase + x));
+            } else if (opt == Operation.ret) {
+                if (i < size - 1) {
+                    body.add(new Instruction(Operation.br, size));
+                }
+            } else if (keepResult && i == size - 2) {
+                // 返回值的 store64
+            } else if (Branches.isBranch(opt)) {
+                body.add(new Instruction(opt, i + 1 + x));
+            } else {
+                body.add(instruction.copy());
+            }
+        }
+        newIndex[size] = body.size() - start;
+        for (int i = start; i < body.size(); i++) {
+            Instruction instruction = body.get(i);
+            if (Branches.isBranch(instruction)) {
+                instruction.setX(start + newIndex[(int) instruction.getX()] - i - 1);
+            }
+        }
+        return keepResult;
+    }
+
+    private static boolean keepsResult(List<Instruction> calleeBody) {
+        int size = calleeBody.size();
+        if (size < 3 || calleeBody.get(size - 2).getOpt() != Operation.store64) {
+            return false;
+        }
+        int rets = 0;
+        int returnSlots = 0;
+        for (int i = 0; i < size; i++) {
+            Instruction instruction = calleeBody.get(i);
+            if (instruction.getOpt() == Operation.ret) {
+                rets++;
+            } else if (instruction.getOpt() == Operation.arga && ((Number) instruction.getX()).intValue() == 0) {
+                returnSlots++;
+            } else if (Branches.isBranch(instruction) && Branches.target(calleeBody, i) >= size - 2) {
+                // 跳过返回值的 store64 直接 ret 的路径
+                return false;
+            }
+        }
+        return rets == 1 && returnSlots == 1 && calleeBody.get(size - 1).getOpt() == Operation.ret;
+    }
+}
@@ -0,0 +1,87 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.List;
+
+/**
+ * 跳转穿透
+ * 分支的目标块只是中转时直接跳到最终的去处：
+ * 只有一条 br 的块沿着 br 走下去；只有 push c; brfalse / brtrue 的块条件已知，走确定的一边；
+ * br 到只有一条 ret 的块时直接 ret
+ * 嵌套的 while / if 中 break、continue 和 if 结尾的 br 常常一个接一个，虚拟机原本要逐个执行
+ */
+public class JumpThreading {
+
+    /**
+     * 原地处理一个函数体
+     *
+     * @return 改变了去处的分支条数
+     */
+    public static int thread(List<Instruction> body) {
+        if (body.isEmpty()) {
+            return 0;
+        }
+        ControlFlowGraph cfg = new ControlFlowGraph(body);
+        List<BasicBlock> blocks = cfg.getBlocks();
+        int changed = 0;
+        for (BasicBlock block : blocks) {
+            if (block.target == null) {
+                continue;
+            }
+            BasicBlock destination = destination(block.target, blocks.size());
+            Instruction last = block.getLast();
+            if (last.getOpt() == Operation.br && destination.isOnly(Operation.ret)) {
+                block.instructions.set(block.instructions.size() - 1, new Instruction(Operation.ret));
+                block.target = null;
+                changed++;
+            } else if (destination != block.target) {
+                block.target = destination;
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            cfg.removeUnreachable();
+        }
+        cfg.linearize(body);
+        return changed;
+    }
+
+    /**
+     * 从 block 开始沿中转块走到的最终去处，遇到环时停在环上
+     */
+    private static BasicBlock destination(BasicBlock block, int limit) {
+        for (int hops = 0; hops < limit; hops++) {
+            BasicBlock following;
+            if (block.isOnly(Operation.br)) {
+                following = block.target;
+            } else {
+                following = constantBranch(block);
+            }
+            if (following == null || following == block) {
+                break;
+            }
+            block = following;
+        }
+        return block;
+    }
+
+    /**
+     * 块为 push c; brfalse / brtrue 时返回条件确定的去处，否则返回 null
+     */
+    private static BasicBlock constantBranch(BasicBlock block) {
+        List<Instruction> instructions = block.instructions;
+        if (instructions.size() != 2 || instructions.get(0).getOpt() != Operation.push) {
+            return null;
+        }
+        Operation opt = instructions.get(1).getOpt();
+        if (opt != Operation.brfalse && opt != Operation.brtrue) {
+            return null;
+        }
+        Object x = instructions.get(0).getX();
+        long bits = x instanceof Double ? Double.doubleToRawLongBits((double) x) : (long) x;
+        boolean taken = (bits != 0) == (opt == Operation.brtrue);
+        return taken ? block.target : block.next;
+    }
+}
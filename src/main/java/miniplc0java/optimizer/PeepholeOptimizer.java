@@ -0,0 +1,239 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 窥孔优化
+ * 按顺序在每个位置尝试各条规则，匹配的指令段换成规则给出的指令，反复进行直到没有规则能匹配
+ * 匹配段内部（第一条之后）不能有分支目标，否则跳进来的路径会被改变；段首是分支目标时，跳转改为指向替换后的第一条指令
+ */
+public class PeepholeOptimizer {
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    // 按匹配段第一条指令的操作分组的规则
+    List<List<PeepholeRule>> rules = new ArrayList<>();
+
+    // 在各个函数之间复用：输出的指令、旧下标 -> 新下标、每条指令是否为分支目标
+    List<Instruction> out = new ArrayList<>();
+    int[] newIndex = new int[0];
+    boolean[] targets = new boolean[0];
+
+    /**
+     * 使用默认规则
+     */
+    public PeepholeOptimizer() {
+        this(List.of());
+        addRule(PeepholeOptimizer::branchToNext, Operation.br, Operation.brfalse, Operation.brtrue);
+        addRule(PeepholeOptimizer::notBranch, Operation.not);
+        addRule(PeepholeOptimizer::doubleNegation, Operation.negi, Operation.negf);
+        addRule(PeepholeOptimizer::reloadToDup, Operation.loca, Operation.arga, Operation.globa);
+        addRule(PeepholeOptimizer::storeReload, Operation.loca, Operation.arga, Operation.globa);
+        addRule(PeepholeOptimizer::deadValue, Operation.push, Operation.loca, Operation.arga, Operation.globa);
+    }
+
+    /**
+     * 只使用给出的规则，每条规则在所有位置上尝试
+     */
+    public PeepholeOptimizer(List<PeepholeRule> rules) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            this.rules.add(new ArrayList<>());
+        }
+        for (PeepholeRule rule : rules) {
+            addRule(rule);
+        }
+    }
+
+    /**
+     * 添加规则
+     *
+     * @param first 匹配段第一条指令可能的操作，为空时在所有位置上尝试
+     */
+    public void addRule(PeepholeRule rule, Operation... first) {
+        if (first.length == 0) {
+            first = OPERATIONS;
+        }
+        for (Operation opt : first) {
+            rules.get(opt.ordinal()).add(rule);
+        }
+    }
+
+    /**
+     * 优化所有函数
+     *
+     * @return 函数名 -> 删掉的指令条数
+     */
+    public Map<String, Integer> optimize(Map<String, FunctionTable> functionTables) {
+        Map<String, Integer> removed = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionTable> entry : functionTables.entrySet()) {
+            removed.put(entry.getKey(), optimize(entry.getValue().getBody()));
+        }
+        return removed;
+    }
+
+    /**
+     * 原地优化一个函数体
+     *
+     * @return 删掉的指令条数
+     */
+    public int optimize(List<Instruction> body) {
+        int size = body.size();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            if (newIndex.length <= body.size()) {
+                newIndex = new int[body.size() * 2 + 1];
+                targets = new boolean[body.size() * 2 + 1];
+            }
+            Branches.toAbsolute(body);
+            Arrays.fill(targets, 0, body.size() + 1, false);
+            for (Instruction instruction : body) {
+                if (Branches.isBranch(instruction)) {
+                    targets[(int) instruction.getX()] = true;
+                }
+            }
+            out.clear();
+            int i = 0;
+            while (i < body.size()) {
+                newIndex[i] = out.size();
+                int matched = 0;
+                for (PeepholeRule rule : rules.get(body.get(i).getOpt().ordinal())) {
+                    int mark = out.size();
+                    matched = rule.apply(body, i, out);
+                    if (matched > 0 && !hasTarget(i + 1, i + matched)) {
+                        break;
+                    }
+                    // 不匹配，或者匹配段内部有分支目标
+                    while (out.size() > mark) {
+                        out.remove(out.size() - 1);
+                    }
+                    matched = 0;
+                }
+                if (matched == 0) {
+                    out.add(body.get(i));
+                    i++;
+                } else {
+                    for (int j = i + 1; j < i + matched; j++) {
+                        newIndex[j] = newIndex[i];
+                    }
+                    i += matched;
+                    changed = true;
+                }
+            }
+            newIndex[body.size()] = out.size();
+            Branches.relocate(out, newIndex);
+            body.clear();
+            body.addAll(out);
+        }
+        out.clear();
+        return size - body.size();
+    }
+
+    private boolean hasTarget(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (targets[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean is(List<Instruction> body, int i, Operation opt) {
+        return i < body.size() && body.get(i).getOpt() == opt;
+    }
+
+    private static boolean isAddress(List<Instruction> body, int i) {
+        return is(body, i, Operation.loca) || is(body, i, Operation.arga) || is(body, i, Operation.globa);
+    }
+
+    /**
+     * br 0 跳到下一条，直接删掉；brfalse 0 / brtrue 0 只需要弹出条件
+     */
+    static int branchToNext(List<Instruction> body, int i, List<Instruction> out) {
+        Instruction instruction = body.get(i);
+        if (!Branches.isBranch(instruction) || (int) instruction.getX() != i + 1) {
+            return 0;
+        }
+        if (instruction.getOpt() != Operation.br) {
+            out.add(new Instruction(Operation.pop));
+        }
+        return 1;
+    }
+
+    /**
+     * not; brfalse -> brtrue，not; brtrue -> brfalse
+     */
+    static int notBranch(List<Instruction> body, int i, List<Instruction> out) {
+        if (!is(body, i, Operation.not)) {
+            return 0;
+        }
+        if (is(body, i + 1, Operation.brfalse)) {
+            out.add(new Instruction(Operation.brtrue, (Integer) body.get(i + 1).getX()));
+            return 2;
+        } else if (is(body, i + 1, Operation.brtrue)) {
+            out.add(new Instruction(Operation.brfalse, (Integer) body.get(i + 1).getX()));
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * negi; negi 和 negf; negf 不改变值
+     */
+    static int doubleNegation(List<Instruction> body, int i, List<Instruction> out) {
+        if (is(body, i, Operation.negi) && is(body, i + 1, Operation.negi)
+                || is(body, i, Operation.negf) && is(body, i + 1, Operation.negf)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * 连续两次读取同一个变量：loca n; load64; loca n; load64 -> loca n; load64; dup
+     */
+    static int reloadToDup(List<Instruction> body, int i, List<Instruction> out) {
+        if (isAddress(body, i) && is(body, i + 1, Operation.load64)
+                && i + 3 < body.size() && body.get(i + 2).equals(body.get(i)) && is(body, i + 3, Operation.load64)) {
+            out.add(body.get(i));
+            out.add(body.get(i + 1));
+            out.add(new Instruction(Operation.dup));
+            return 4;
+        }
+        return 0;
+    }
+
+    /**
+     * 把常量存入变量后立即读取：loca n; push c; store64; loca n; load64 -> loca n; push c; store64; push c
+     */
+    static int storeReload(List<Instruction> body, int i, List<Instruction> out) {
+        if (isAddress(body, i) && is(body, i + 1, Operation.push) && is(body, i + 2, Operation.store64)
+                && i + 4 < body.size() && body.get(i + 3).equals(body.get(i)) && is(body, i + 4, Operation.load64)) {
+            out.add(body.get(i));
+            out.add(body.get(i + 1));
+            out.add(body.get(i + 2));
+            out.add(body.get(i + 1).copy());
+            return 5;
+        }
+        return 0;
+    }
+
+    /**
+     * 没有副作用地压栈后立即弹出：push c; pop、loca n; pop、loca n; load64; pop
+     */
+    static int deadValue(List<Instruction> body, int i, List<Instruction> out) {
+        if ((is(body, i, Operation.push) || isAddress(body, i)) && is(body, i + 1, Operation.pop)) {
+            return 2;
+        }
+        if (isAddress(body, i) && is(body, i + 1, Operation.load64) && is(body, i + 2, Operation.pop)) {
+            return 3;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,19 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+
+import java.util.List;
+
+/**
+ * 窥孔优化规则
+ * 规则看到的分支指令的 x 是目标指令的绝对下标，生成的分支指令也要这样设置
+ */
+public interface PeepholeRule {
+    /**
+     * 尝试匹配从 body[i] 开始的一段指令
+     *
+     * @param out 匹配成功时把替换后的指令追加到这里
+     * @return 匹配的指令条数，不匹配时返回 0
+     */
+    int apply(List<Instruction> body, int i, List<Instruction> out);
+}
@@ -0,0 +1,118 @@
+package miniplc0java.optimizer;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 删除函数中不可达的指令
+ * 从第一条指令出发沿顺序执行和分支标记可达的指令，ret 和 br 之后的指令只有作为分支目标时才可达
+ * 条件为常量的分支（push c; brfalse / brtrue，且分支本身不是跳转目标）按常量决定走向：
+ * 一定不跳转时连同 push 一起删掉，一定跳转时换成 br，例如 while 1 的条件不再每次循环都计算
+ */
+public class UnreachableCodeEliminator {
+    // 每条指令的处理方式
+    private static final byte KEEP = 0;
+    private static final byte DROP = 1;
+    // 常量条件一定跳转，换成 br
+    private static final byte JUMP = 2;
+
+    /**
+     * 原地处理一个函数体
+     *
+     * @return 删掉的指令条数
+     */
+    public static int eliminate(List<Instruction> body) {
+        int size = body.size();
+        if (size == 0) {
+            return 0;
+        }
+        Branches.toAbsolute(body);
+
+        boolean[] targets = new boolean[size + 1];
+        for (Instruction instruction : body) {
+            if (Branches.isBranch(instruction)) {
+                targets[(int) instruction.getX()] = true;
+            }
+        }
+
+        byte[] actions = new byte[size];
+        boolean[] reachable = new boolean[size];
+        int[] stack = new int[size + 1];
+        int depth = 0;
+        stack[depth++] = 0;
+        while (depth > 0) {
+            int i = stack[--depth];
+            if (i >= size || reachable[i]) {
+                continue;
+            }
+            reachable[i] = true;
+            Instruction instruction = body.get(i);
+            Operation opt = instruction.getOpt();
+            if (opt == Operation.ret || opt == Operation.panic) {
+                continue;
+            }
+            if (opt == Operation.br) {
+                stack[depth++] = (int) instruction.getX();
+                continue;
+            }
+            if (opt == Operation.brfalse || opt == Operation.brtrue) {
+                int condition = constantCondition(body, i, targets);
+                if (condition != -1) {
+                    boolean taken = (condition != 0) == (opt == Operation.brtrue);
+                    actions[i - 1] = DROP;
+                    actions[i] = taken ? JUMP : DROP;
+                    stack[depth++] = taken ? (int) instruction.getX() : i + 1;
+                    continue;
+                }
+                // 两个后继都可能执行，栈最多增长一格
+                if (depth == stack.length - 1) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[depth++] = (int) instruction.getX();
+            }
+            stack[depth++] = i + 1;
+        }
+
+        int[] newIndex = new int[size + 1];
+        List<Instruction> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            newIndex[i] = out.size();
+            if (!reachable[i] || actions[i] == DROP) {
+                continue;
+            }
+            Instruction instruction = body.get(i);
+            if (actions[i] == JUMP) {
+                out.add(new Instruction(Operation.br, (Integer) instruction.getX()));
+            } else {
+                out.add(instruction);
+            }
+        }
+        newIndex[size] = out.size();
+        Branches.relocate(out, newIndex);
+        body.clear();
+        body.addAll(out);
+        return size - body.size();
+    }
+
+    /**
+     * 第 i 条条件分支的条件是否为紧挨着的常量
+     *
+     * @return 常量为 0 时返回 0，非 0 时返回 1，不是常量时返回 -1
+     */
+    private static int constantCondition(List<Instruction> body, int i, boolean[] targets) {
+        if (i == 0 || targets[i]) {
+            return -1;
+        }
+        Instruction previous = body.get(i - 1);
+        if (previous.getOpt() != Operation.push) {
+            return -1;
+        }
+        Object x = previous.getX();
+        long bits = x instanceof Double ? Double.doubleToRawLongBits((double) x) : (long) x;
+        return bits != 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,132 @@
+package miniplc0java.tokenizer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 在纯 ASCII 的字节缓冲区上成段扫描空白、注释、标识符和数字，堆上的数组和映射的文件都可以
+ * 每次把 8 个字节当作一个 long 读出，用 SWAR 位运算同时判断 8 个字符，剩下不足 8 个时逐字节处理
+ * 所有方法返回扫描结束处的偏移，即第一个不属于这一段的字符，或 end
+ */
+class AsciiScanner {
+    private static final VarHandle ARRAY_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long SPACES = ' ' * ONES;
+
+    /**
+     * 堆上的缓冲区返回背后的数组，直接读数组比经过 ByteBuffer 快得多；映射的文件返回 null，只能经过 ByteBuffer 读取
+     * 每个方法开头取一次，循环中按它是否为 null 分支，JIT 可以把判断提到循环外
+     */
+    private static byte[] heapArray(ByteBuffer source) {
+        return source.hasArray() && source.arrayOffset() == 0 ? source.array() : null;
+    }
+
+    private static long word(byte[] array, ByteBuffer source, int i) {
+        return array != null ? (long) ARRAY_LONGS.get(array, i) : (long) BUFFER_LONGS.get(source, i);
+    }
+
+    private static byte byteAt(byte[] array, ByteBuffer source, int i) {
+        return array != null ? array[i] : source.get(i);
+    }
+
+    /**
+     * 每个字节的最高位表示该字节是否 >= c，要求所有字节都小于 0x80
+     */
+    private static long atLeast(long x, char c) {
+        return ((x | HIGHS) - c * ONES) & HIGHS;
+    }
+
+    /**
+     * 每个字节的最高位表示该字节是否等于 c
+     */
+    private static long equal(long x, char c) {
+        long t = x ^ (c * ONES);
+        return ~(((t & LOWS) + LOWS) | t) & HIGHS;
+    }
+
+    /**
+     * 最低的一个被标记字节的下标，mask 必须不为 0
+     */
+    private static int firstMarked(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    /**
+     * 跳过空白，缩进中整 8 个的空格一次跳过
+     */
+    static int skipSpaces(ByteBuffer source, int i, int end) {
+        byte[] array = heapArray(source);
+        while (i < end) {
+            if (i + 8 <= end && word(array, source, i) == SPACES) {
+                i += 8;
+            } else if (Tokenizer.CHAR_CLASS[byteAt(array, source, i)] == Tokenizer.SPACE) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 找到下一个换行
+     */
+    static int findNewline(ByteBuffer source, int i, int end) {
+        byte[] array = heapArray(source);
+        for (; i + 8 <= end; i += 8) {
+            long newlines = equal(word(array, source, i), '\n');
+            if (newlines != 0) {
+                return i + firstMarked(newlines);
+            }
+        }
+        while (i < end && byteAt(array, source, i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 跳过字母、数字和下划线
+     */
+    static int skipIdent(ByteBuffer source, int i, int end) {
+        byte[] array = heapArray(source);
+        for (; i + 8 <= end; i += 8) {
+            long x = word(array, source, i);
+            long lower = x | (' ' * ONES);
+            long letters = atLeast(lower, 'a') & ~atLeast(lower, (char) ('z' + 1));
+            long digits = atLeast(x, '0') & ~atLeast(x, (char) ('9' + 1));
+            long others = ~(letters | digits | equal(x, '_')) & HIGHS;
+            if (others != 0) {
+                return i + firstMarked(others);
+            }
+        }
+        while (i < end && Tokenizer.isIdentChar((char) byteAt(array, source, i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 跳过十进制数字
+     */
+    static int skipDigits(ByteBuffer source, int i, int end) {
+        byte[] array = heapArray(source);
+        for (; i + 8 <= end; i += 8) {
+            long x = word(array, source, i);
+            long others = ~(atLeast(x, '0') & ~atLeast(x, (char) ('9' + 1))) & HIGHS;
+            if (others != 0) {
+                return i + firstMarked(others);
+            }
+        }
+        while (i < end && Tokenizer.isDigit((char) byteAt(array, source, i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,210 @@
+package miniplc0java.tokenizer;
+
+import java.math.BigInteger;
+
+/**
+ * 直接在源码区间上解析数字字面量，不创建中间字符串
+ * 整数逐位累加到 long 中并检查溢出
+ * 浮点数先尝试 Clinger 快速路径，再尝试 Eisel-Lemire 算法，两者都给出与 Double.parseDouble 相同的结果，
+ * 只有有效数字超过 19 位等少数情况才退回到 Double.parseDouble
+ */
+class NumberParser {
+    // 10 的 0 到 22 次方都可以用 double 精确表示
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Eisel-Lemire 算法能处理的十进制指数范围，超出时结果一定是 0 或无穷大
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+
+    /**
+     * 5 的 SMALLEST_POWER 到 LARGEST_POWER 次方的 128 位近似值，最高位总是 1，每个值占相邻的两个 long（高位在前）
+     * 只有解析到需要它的浮点数时才计算
+     */
+    private static class PowersOfFive {
+        static final long[] TABLE = new long[2 * (LARGEST_POWER - SMALLEST_POWER + 1)];
+
+        static {
+            BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+            BigInteger five = BigInteger.valueOf(5);
+            for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+                BigInteger c;
+                if (q < 0) {
+                    // 负次方取 2^b / 5^-q 的上取整，再截断到 128 位
+                    BigInteger power = five.pow(-q);
+                    int z = power.subtract(BigInteger.ONE).bitLength();
+                    int b = q >= -27 ? z + 127 : 2 * z + 128;
+                    c = BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE);
+                    if (c.bitLength() > 128) {
+                        c = c.shiftRight(c.bitLength() - 128);
+                    }
+                } else {
+                    // 正次方左移或右移（截断）到最高位恰好在第 127 位
+                    c = five.pow(q);
+                    c = c.bitLength() <= 128 ? c.shiftLeft(128 - c.bitLength()) : c.shiftRight(c.bitLength() - 128);
+                }
+                int index = 2 * (q - SMALLEST_POWER);
+                TABLE[index] = c.shiftRight(64).longValue();
+                TABLE[index + 1] = c.mod(two128).longValue();
+            }
+        }
+    }
+
+    /**
+     * 解析 [start, end) 中的十进制整数
+     *
+     * @return 溢出 long 时返回 -1
+     */
+    static long parseUInt(CharSequence source, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = source.charAt(i) - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * 解析 [start, end) 中的浮点数，格式已经由 Tokenizer 检查过：digits '.' digits ([eE] [+-]? digits)?
+     */
+    static double parseDouble(CharSequence source, int start, int end) {
+        int i = start;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        // 前导零不算有效数字
+        while (source.charAt(i) == '0') {
+            i++;
+        }
+        for (; source.charAt(i) != '.'; i++) {
+            mantissa = mantissa * 10 + (source.charAt(i) - '0');
+            digits++;
+        }
+        i++;
+        if (digits == 0) {
+            while (i < end && source.charAt(i) == '0') {
+                exponent--;
+                i++;
+            }
+        }
+        for (; i < end && isDigit(source.charAt(i)); i++) {
+            mantissa = mantissa * 10 + (source.charAt(i) - '0');
+            digits++;
+            exponent--;
+        }
+        if (digits > 19) {
+            return Double.parseDouble(source.subSequence(start, end).toString());
+        }
+        if (i < end) {
+            // 跳过 'e' 或 'E'
+            i++;
+            boolean negative = source.charAt(i) == '-';
+            if (negative || source.charAt(i) == '+') {
+                i++;
+            }
+            int e = 0;
+            for (; i < end; i++) {
+                // 超过一百万的指数不会影响结果，只需要防止溢出
+                e = Math.min(e * 10 + (source.charAt(i) - '0'), 1_000_000);
+            }
+            exponent += negative ? -e : e;
+        }
+
+        if (mantissa == 0) {
+            return 0.0;
+        }
+        // Clinger：尾数和 10 的幂都能用 double 精确表示时，一次乘除就是正确舍入的结果
+        // 19 位的尾数可能超过 Long.MAX_VALUE，这里把它当作无符号数
+        if (Long.compareUnsigned(mantissa, 1L << 53) <= 0 && exponent >= -22 && exponent <= 22) {
+            return exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        }
+        long bits = eiselLemire(mantissa, exponent);
+        if (bits < 0) {
+            return Double.parseDouble(source.subSequence(start, end).toString());
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Eisel-Lemire 算法，计算 w * 10^q 最近的 double
+     * 参见 Lemire, Number Parsing at a Gigabyte per Second
+     *
+     * @param w 非零的尾数
+     * @return double 的位，无法确定正确舍入时返回 -1
+     */
+    static long eiselLemire(long w, int q) {
+        if (q < SMALLEST_POWER) {
+            return 0;
+        }
+        if (q > LARGEST_POWER) {
+            return Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+        }
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        // w 乘以 5^q 的 128 位近似值，保留 55 位有效精度
+        int index = 2 * (q - SMALLEST_POWER);
+        long[] table = PowersOfFive.TABLE;
+        long high = unsignedMultiplyHigh(w, table[index]);
+        long low = w * table[index];
+        long precisionMask = 0xFFFFFFFFFFFFFFFFL >>> 55;
+        if ((high & precisionMask) == precisionMask) {
+            long secondHigh = unsignedMultiplyHigh(w, table[index + 1]);
+            low += secondHigh;
+            if (Long.compareUnsigned(secondHigh, low) > 0) {
+                high++;
+            }
+        }
+        if (low == -1 && (q < -27 || q > 55)) {
+            return -1;
+        }
+
+        int upperBit = (int) (high >>> 63);
+        int shift = upperBit + 64 - 52 - 3;
+        long mantissa = high >>> shift;
+        int power2 = (((152170 + 65536) * q) >> 16) + 63 + upperBit - lz + 1023;
+
+        if (power2 <= 0) {
+            // 非规格化数
+            if (-power2 + 1 >= 64) {
+                return 0;
+            }
+            mantissa >>>= -power2 + 1;
+            mantissa += mantissa & 1;
+            mantissa >>>= 1;
+            power2 = mantissa < 1L << 52 ? 0 : 1;
+            return (long) power2 << 52 | mantissa & ((1L << 52) - 1);
+        }
+
+        // 恰好在两个 double 正中间时向偶数舍入
+        if (Long.compareUnsigned(low, 1) <= 0 && q >= -4 && q <= 23 && (mantissa & 3) == 1) {
+            if (mantissa << shift == high) {
+                mantissa &= ~1L;
+            }
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= 2L << 52) {
+            mantissa = 1L << 52;
+            power2++;
+        }
+        mantissa &= ~(1L << 52);
+        if (power2 >= 0x7FF) {
+            return Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+        }
+        return (long) power2 << 52 | mantissa;
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return Math.multiplyHigh(x, y) + (x >> 63 & y) + (y >> 63 & x);
+    }
+}
@@ -0,0 +1,192 @@
+package miniplc0java.tokenizer;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.util.StringPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 多线程词法分析，用于整体读入的大文件
+ * 先顺序扫描一遍，在不属于字符串、字符字面量和注释的换行之后切分，
+ * 各段在 fork-join 线程池中各用一个 Tokenizer 和一个字符串池解析，最后按顺序拼成一个 TokenBuffer
+ * 偏移在整个源文件中统一编号，拼接时只需要把各段的字符串 id 换成共用字符串池中的 id
+ */
+public class ParallelTokenizer {
+    // 每段的目标字符数
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    private StringIter it;
+    private StringPool stringPool;
+    private ForkJoinPool pool;
+    private int chunkSize;
+
+    public ParallelTokenizer(StringIter it) {
+        this(it, new StringPool(), ForkJoinPool.commonPool(), CHUNK_SIZE);
+    }
+
+    public ParallelTokenizer(StringIter it, StringPool stringPool, ForkJoinPool pool, int chunkSize) {
+        this.it = it;
+        this.stringPool = stringPool;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 解析整个输入，结果与 Tokenizer.tokenizeAll 完全相同，包括字符串 id 的编号
+     * 有多处错误时抛出位置最靠前的那个
+     */
+    public TokenBuffer tokenizeAll() throws TokenizeError {
+        it.readAll();
+        int[] bounds = splitPoints(it, chunkSize);
+        int chunks = bounds.length - 1;
+
+        ChunkTask[] tasks = new ChunkTask[chunks];
+        for (int i = 0; i < chunks; i++) {
+            tasks[i] = new ChunkTask(it.slice(bounds[i], bounds[i + 1]));
+            pool.execute(tasks[i]);
+        }
+        TokenBuffer[] parts = new TokenBuffer[chunks];
+        for (int i = 0; i < chunks; i++) {
+            parts[i] = tasks[i].join();
+            if (tasks[i].error != null) {
+                for (int j = i + 1; j < chunks; j++) {
+                    tasks[j].cancel(false);
+                }
+                throw tasks[i].error;
+            }
+        }
+
+        // 按段的顺序驻留各段的字符串，这样 id 仍然按第一次出现的顺序编号
+        // 每段末尾的 EOF 只保留最后一个
+        int[][] remaps = new int[chunks][];
+        int[] at = new int[chunks];
+        int size = 1;
+        for (int i = 0; i < chunks; i++) {
+            StringPool chunkPool = parts[i].getStringPool();
+            remaps[i] = new int[chunkPool.size()];
+            for (int id = 0; id < remaps[i].length; id++) {
+                remaps[i][id] = stringPool.intern(chunkPool.get(id));
+            }
+            at[i] = size - 1;
+            size += parts[i].size() - 1;
+        }
+
+        TokenBuffer tokens = new TokenBuffer(it.getLineTable(), stringPool, size);
+        List<ForkJoinTask<?>> copies = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            TokenBuffer part = parts[i];
+            int[] remap = remaps[i];
+            int offset = at[i];
+            int count = i == chunks - 1 ? part.size() : part.size() - 1;
+            copies.add(pool.submit(() -> copy(part, remap, tokens, offset, count)));
+        }
+        for (ForkJoinTask<?> copy : copies) {
+            copy.join();
+        }
+        tokens.size = size;
+        tokens.tokenizer = null;
+        return tokens;
+    }
+
+    /**
+     * 解析一段，词法错误保存下来，等按顺序汇合时再抛出
+     */
+    static class ChunkTask extends RecursiveTask<TokenBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        StringIter chunk;
+        TokenizeError error;
+
+        ChunkTask(StringIter chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected TokenBuffer compute() {
+            try {
+                return new Tokenizer(chunk).tokenizeAll();
+            } catch (TokenizeError e) {
+                error = e;
+                return null;
+            }
+        }
+    }
+
+    private static void copy(TokenBuffer part, int[] remap, TokenBuffer tokens, int offset, int count) {
+        System.arraycopy(part.types, 0, tokens.types, offset, count);
+        System.arraycopy(part.starts, 0, tokens.starts, offset, count);
+        System.arraycopy(part.ends, 0, tokens.ends, offset, count);
+        System.arraycopy(part.values, 0, tokens.values, offset, count);
+        for (int i = 0; i < count; i++) {
+            int id = part.strings[i];
+            tokens.strings[offset + i] = id < 0 ? id : remap[id];
+        }
+    }
+
+    /**
+     * 预扫描出切分点，第一个为 0，最后一个为源文件长度，相邻两点间隔约为 chunkSize
+     * 切分点总是紧跟在一个换行之后，且这个换行不在字符串、字符字面量或注释中，
+     * 因此从切分点开始解析与从头解析到这里的状态相同
+     * 这里只关心引号、反斜杠、'/' 和换行，对非法输入的处理与 Tokenizer 保持一致，错误仍由 Tokenizer 报告
+     */
+    static int[] splitPoints(CharSequence source, int chunkSize) {
+        int length = source.length();
+        int[] points = new int[16];
+        int count = 1;
+        int next = chunkSize;
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i++);
+            switch (c) {
+                case '\n':
+                    if (i >= next && i < length) {
+                        if (count == points.length) {
+                            points = Arrays.copyOf(points, count * 2);
+                        }
+                        points[count++] = i;
+                        next = i + chunkSize;
+                    }
+                    break;
+                case '"':
+                    // 字符串可以跨行，一直到下一个没有被转义的引号
+                    while (i < length) {
+                        char d = source.charAt(i++);
+                        if (d == '\\') {
+                            i++;
+                        } else if (d == '"') {
+                            break;
+                        }
+                    }
+                    break;
+                case '\'':
+                    // 一个字符（或一个转义序列）加上结尾的引号，字符本身可以是换行
+                    if (i < length && source.charAt(i) == '\\') {
+                        i++;
+                    }
+                    i++;
+                    if (i < length && source.charAt(i) == '\'') {
+                        i++;
+                    }
+                    break;
+                case '/':
+                    if (i < length && source.charAt(i) == '/') {
+                        while (i < length && source.charAt(i) != '\n') {
+                            i++;
+                        }
+                    }
+                    break;
+                default:
+            }
+        }
+        if (count == points.length) {
+            points = Arrays.copyOf(points, count + 1);
+        }
+        points[count++] = length;
+        return Arrays.copyOf(points, count);
+    }
+}
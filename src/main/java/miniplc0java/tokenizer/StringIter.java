@@ -1,141 +1,357 @@
 package miniplc0java.tokenizer;
 
-import java.util.ArrayList;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Scanner;
 
-import miniplc0java.util.Pos;
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.util.LineTable;
 
 /**
  * 这是一个从 C++ 版本抄过来的字符迭代器
+ * 源文件被整体映射（或读入）为一个字节缓冲区，指针只是缓冲区中的偏移
+ * 位置一律用偏移表示，行号和列号只在报错时通过 LineTable 换算
+ * 流式模式下只在内存中保留一个定长的窗口，窗口从当前 token 的起点（mark）开始，读完后再从通道补充
  */
-public class StringIter {
-    // 以行为基础的缓冲区
-    ArrayList<String> linesBuffer = new ArrayList<>();
+public class StringIter implements CharSequence {
+    // 整个源文件，纯 ASCII 时直接按字节读取
+    ByteBuffer bytes;
+    // bytes 背后的数组，源码在堆上时直接按数组下标读取
+    byte[] array;
+    // 源文件含有非 ASCII 字符时，退回到解码后的字符数组；流式模式下是当前窗口
+    char[] chars;
+    // 已经读入的字符数，流式模式下读到通道末尾之前会不断增长
+    int length;
+    // chars[0] 对应的偏移，只有流式模式下不为 0
+    int windowStart = 0;
+
+    // 流式模式的输入，一次只读入 input 大小的字节
+    ReadableByteChannel channel;
+    CharsetDecoder decoder;
+    ByteBuffer input;
+    boolean endOfInput = false;
+    // 窗口中 mark 之前的字符可以被丢弃
+    int mark = 0;
 
     Scanner scanner;
+
+    Path path;
+
     // 指向下一个要读取的字符
-    Pos ptrNext = new Pos(0, 0);
+    int ptr = 0;
 
-    Pos ptr = new Pos(0, 0);
+    // 行首偏移表，第一次报错时才建立
+    LineTable lineTable;
 
     boolean initialized = false;
 
-    Optional<Character> peeked = Optional.empty();
-
     public StringIter(Scanner scanner) {
         this.scanner = scanner;
     }
 
-    // 从这里开始其实是一个基于行号的缓冲区的实现
-    // 为了简单起见，我们没有单独拿出一个类实现
+    /**
+     * 以内存映射的方式读取源文件
+     */
+    public StringIter(Path path) {
+        this.path = path;
+    }
+
+    public StringIter(byte[] source) {
+        load(ByteBuffer.wrap(source));
+        initialized = true;
+    }
+
+    /**
+     * 流式读取，内存中只保留约 windowSize 个字符，适用于很大的输入
+     * 行首偏移在读入时登记，报错时仍然可以换算出行号
+     */
+    public StringIter(ReadableByteChannel channel, int windowSize) {
+        this.channel = channel;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8 的一个字符最多 4 字节，字节缓冲区至少要放得下一个完整的字符
+        this.input = ByteBuffer.allocate(Math.max(windowSize, 4));
+        this.chars = new char[windowSize];
+        this.lineTable = new LineTable();
+        initialized = true;
+    }
+
+    /**
+     * 与 source 共用同一个缓冲区、只覆盖 [start, end) 的迭代器，偏移仍然按整个源文件计算
+     */
+    private StringIter(StringIter source, int start, int end) {
+        this.bytes = source.bytes;
+        this.array = source.array;
+        this.chars = source.chars;
+        this.ptr = start;
+        this.mark = start;
+        this.length = end;
+        this.lineTable = source.getLineTable();
+        this.initialized = true;
+    }
+
+    /**
+     * 切出 [start, end) 交给另一个 Tokenizer 解析，只能用于已经通过 readAll 整体读入的源文件
+     */
+    StringIter slice(int start, int end) {
+        if (channel != null || !initialized) {
+            throw new Error("cannot slice a streaming source");
+        }
+        return new StringIter(this, start, end);
+    }
+
+    // 从这里开始其实是一个基于偏移的缓冲区的实现
     // 核心思想和 C 的文件输入输出类似，就是一个 buffer 加一个指针，有三个细节
     // 1.缓冲区包括 \n
     // 2.指针始终指向下一个要读取的 char
     // 3.行号和列号从 0 开始
 
-    // 一次读入全部内容，并且替换所有换行为 \n
-    // 这样其实是不合理的，这里只是简单起见这么实现
-    public void readAll() {
+    // 一次读入全部内容
+    // 文件通过 FileChannel.map 映射进来，不再逐行经过 Scanner
+    public void readAll() throws TokenizeError {
         if (initialized) {
             return;
         }
-        while (scanner.hasNext()) {
-            linesBuffer.add(scanner.nextLine() + '\n');
+        if (path != null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new TokenizeError(ErrorCode.StreamError, 0, 0);
+                }
+                load(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } catch (IOException e) {
+                throw new TokenizeError(ErrorCode.StreamError, 0, 0);
+            }
+        } else {
+            StringBuilder stringBuilder = new StringBuilder();
+            while (scanner.hasNext()) {
+                stringBuilder.append(scanner.nextLine()).append('\n');
+            }
+            load(ByteBuffer.wrap(stringBuilder.toString().getBytes(StandardCharsets.UTF_8)));
         }
-        // todo:check read \n?
         initialized = true;
     }
 
+    /**
+     * 纯 ASCII 的源文件直接按字节访问，否则整体解码为 UTF-8 字符
+     */
+    private void load(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) < 0) {
+                this.chars = StandardCharsets.UTF_8.decode(buffer.duplicate()).toString().toCharArray();
+                this.length = chars.length;
+                return;
+            }
+        }
+        this.bytes = buffer;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+            this.array = buffer.array();
+        }
+        this.length = limit;
+    }
+
+    /**
+     * 流式模式下 offset 必须落在当前窗口内，即不早于最近一次 mark
+     */
+    @Override
+    public char charAt(int offset) {
+        if (array != null) {
+            return (char) array[offset];
+        }
+        if (chars != null) {
+            return chars[offset - windowStart];
+        }
+        return (char) bytes.get(offset);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * 取出 [start, end) 之间的内容，纯 ASCII 时直接从字节缓冲区整段拷贝
+     */
+    public String substring(int start, int end) {
+        if (chars != null) {
+            return new String(chars, start - windowStart, end - start);
+        }
+        byte[] dst = new byte[end - start];
+        bytes.get(start, dst, 0, dst.length);
+        return new String(dst, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(windowStart, length).toString();
+    }
+
+    /**
+     * 整体读入的源码为纯 ASCII 时返回字节缓冲区，供 AsciiScanner 成段扫描，否则返回 null
+     * 堆上的数组、映射的文件以及从它们切出的片段都适用，流式窗口和解码后的字符不适用
+     */
+    ByteBuffer asciiBytes() {
+        return chars == null ? bytes : null;
+    }
+
+    /**
+     * 把指针直接移动到 offset，offset 不能超过已经读入的范围
+     */
+    void seek(int offset) {
+        ptr = offset;
+    }
+
+    /**
+     * 标记当前 token 的起点，流式模式下补充窗口时只保留从这里开始的字符
+     */
+    public void mark() {
+        mark = ptr;
+    }
+
+    /**
+     * 从通道补充窗口
+     *
+     * @return 是否读到了新的字符
+     */
+    private boolean fill() {
+        if (channel == null) {
+            return false;
+        }
+        // 丢弃 mark 之前的字符，当前 token 占了窗口的一半以上时才扩大窗口
+        int keep = length - mark;
+        if (keep > chars.length / 2) {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+        System.arraycopy(chars, mark - windowStart, chars, 0, keep);
+        windowStart = mark;
+
+        CharBuffer out = CharBuffer.wrap(chars, keep, chars.length - keep);
+        try {
+            while (out.position() == keep) {
+                if (!endOfInput && channel.read(input) < 0) {
+                    endOfInput = true;
+                }
+                input.flip();
+                CoderResult result = decoder.decode(input, out, endOfInput);
+                input.compact();
+                if (result.isOverflow() && out.position() == keep) {
+                    // 剩下的空间放不下一个字符（代理对占两个 char），扩大窗口
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                    out = CharBuffer.wrap(chars, keep, chars.length - keep);
+                    continue;
+                }
+                if (endOfInput && input.position() == 0) {
+                    decoder.flush(out);
+                    channel.close();
+                    channel = null;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int newLength = windowStart + out.position();
+        for (int i = length; i < newLength; i++) {
+            if (chars[i - windowStart] == '\n') {
+                lineTable.addLine(i + 1);
+            }
+        }
+        boolean filled = newLength > length;
+        length = newLength;
+        return filled;
+    }
+
+    public LineTable getLineTable() {
+        if (lineTable == null) {
+            lineTable = new LineTable(this);
+        }
+        return lineTable;
+    }
+
     // 一个简单的总结
-    // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 偏移
-    // | = | = | = | = | = | = | = | = | = | = |
-    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n |（缓冲区第0行）
-    // | 7 | 1 | 1 | 4 | 5 | 1 | 4 | （缓冲区第1行）
-    // 这里假设指针指向第一行的 \n，那么有
-    // nextPos() = (1, 0)
-    // currentPos() = (0, 9)
-    // previousPos() = (0, 8)
-    // nextChar() = '\n' 并且指针移动到 (1, 0)
+    // | 0 | 1 | 2 | 3 | 4 | 5 | 6 | 7 | 8 | 9 | 10 | 11 | 偏移
+    // | = | = | = | = | = | = | = | = | = | = | == | == |
+    // | h | a | 1 | 9 | 2 | 6 | 0 | 8 | 1 | \n | 7  | 1  |
+    // 这里假设指针指向 \n，那么有
+    // nextOffset() = 10
+    // currentOffset() = 9
+    // previousOffset() = 8
+    // nextChar() = '\n' 并且指针移动到 10
     // peekChar() = '\n' 并且指针不移动
     /**
-     * 获取下一个字符的位置
+     * 获取下一个字符的偏移
      */
-    public Pos nextPos() {
-        if (ptr.row >= linesBuffer.size()) {
+    public int nextOffset() {
+        if (ptr >= length) {
             throw new Error("advance after EOF");
         }
-        if (ptr.col == linesBuffer.get(ptr.row).length() - 1) {
-            return new Pos(ptr.row + 1, 0);
-        }
-        return new Pos(ptr.row, ptr.col + 1);
+        return ptr + 1;
     }
 
     /**
-     * 获取当前字符的位置
+     * 获取当前字符的偏移
      */
-    public Pos currentPos() {
+    public int currentOffset() {
         return ptr;
     }
 
     /**
-     * 获取上一个字符的位置
+     * 获取上一个字符的偏移
      */
-    public Pos previousPos() {
-        if (ptr.row == 0 && ptr.col == 0) {
+    public int previousOffset() {
+        if (ptr == 0) {
             throw new Error("previous position from beginning");
         }
-        if (ptr.col == 0) {
-            return new Pos(ptr.row - 1, linesBuffer.get(ptr.row - 1).length() - 1);
-        }
-        return new Pos(ptr.row, ptr.col - 1);
+        return ptr - 1;
     }
 
     /**
      * 将指针指向下一个字符，并返回当前字符
      */
     public char nextChar() {
-        if (this.peeked.isPresent()) {
-            char ch = this.peeked.get();
-            this.peeked = Optional.empty();
-            this.ptr = ptrNext;
-            return ch;
-        } else {
-            char ch = this.getNextChar();
-            this.ptr = ptrNext;
-            return ch;
-        }
-    }
-
-    private char getNextChar() {
-        if (isEOF()) {
+        if (ptr >= length && !fill()) {
             return 0;
         }
-        char result = linesBuffer.get(ptrNext.row).charAt(ptrNext.col);
-        ptrNext = nextPos();
-        return result;
+        return charAt(ptr++);
     }
 
     /**
      * 查看下一个字符，但不移动指针
      */
     public char peekChar() {
-        if (peeked.isPresent()) {
-            return peeked.get();
-        } else {
-            char ch = getNextChar();
-            this.peeked = Optional.of(ch);
-            return ch;
+        if (ptr >= length && !fill()) {
+            return 0;
         }
+        return charAt(ptr);
     }
 
     public Boolean isEOF() {
-        return ptr.row >= linesBuffer.size();
+        return ptr >= length && !fill();
     }
 
     // Note: Is it evil to unread a buffer?
     public void unreadLast() {
-        ptr = previousPos();
+        ptr = previousOffset();
     }
 
 }
@@ -1,28 +1,28 @@
 package miniplc0java.tokenizer;
 
 import miniplc0java.error.TokenizeError;
-import miniplc0java.util.Pos;
 
 import java.util.Objects;
 
 public class Token {
     private TokenType tokenType;
     private Object value;
-    private Pos startPos;
-    private Pos endPos;
+    // token 在源文件中的起止偏移，行列号只在报错时通过 LineTable 换算
+    private int startOffset;
+    private int endOffset;
 
-    public Token(TokenType tokenType, Object value, Pos startPos, Pos endPos) {
+    public Token(TokenType tokenType, Object value, int startOffset, int endOffset) {
         this.tokenType = tokenType;
         this.value = value;
-        this.startPos = startPos;
-        this.endPos = endPos;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
     }
 
     public Token(Token token) {
         this.tokenType = token.tokenType;
         this.value = token.value;
-        this.startPos = token.startPos;
-        this.endPos = token.endPos;
+        this.startOffset = token.startOffset;
+        this.endOffset = token.endOffset;
     }
 
     @Override
@@ -33,12 +33,12 @@ public class Token {
             return false;
         Token token = (Token) o;
         return tokenType == token.tokenType && Objects.equals(value, token.value)
-                && Objects.equals(startPos, token.startPos) && Objects.equals(endPos, token.endPos);
+                && startOffset == token.startOffset && endOffset == token.endOffset;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tokenType, value, startPos, endPos);
+        return Objects.hash(tokenType, value, startOffset, endOffset);
     }
 
     public String getValueString() {
@@ -64,27 +64,26 @@ public class Token {
         this.value = value;
     }
 
-    public Pos getStartPos() {
-        return startPos;
+    public int getStartOffset() {
+        return startOffset;
     }
 
-    public void setStartPos(Pos startPos) {
-        this.startPos = startPos;
+    public void setStartOffset(int startOffset) {
+        this.startOffset = startOffset;
     }
 
-    public Pos getEndPos() {
-        return endPos;
+    public int getEndOffset() {
+        return endOffset;
     }
 
-    public void setEndPos(Pos endPos) {
-        this.endPos = endPos;
+    public void setEndOffset(int endOffset) {
+        this.endOffset = endOffset;
     }
 
     @Override
     public String toString() {
 //        var sb = new StringBuilder();
-//        sb.append("Line: ").append(this.startPos.row).append(' ');
-//        sb.append("Column: ").append(this.startPos.col).append(' ');
+//        sb.append("Offset: ").append(this.startOffset).append(' ');
 //        sb.append("Type: ").append(this.tokenType).append(' ');
 //        sb.append("Value: ").append(this.value);
 //        return sb.toString();
@@ -93,6 +92,6 @@ public class Token {
 
     public String toStringAlt() {
         return new StringBuilder().append("Token(").append(this.tokenType).append(", value: ").append(value)
-                .append("at: ").append(this.startPos).toString();
+                .append("at: ").append(this.startOffset).toString();
     }
 }
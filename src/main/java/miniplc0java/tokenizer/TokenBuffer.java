@@ -0,0 +1,168 @@
+package miniplc0java.tokenizer;
+
+import miniplc0java.error.TokenizeError;
+import miniplc0java.util.LineTable;
+import miniplc0java.util.StringPool;
+
+import java.util.Arrays;
+
+/**
+ * 以结构数组形式保存的 token 序列
+ * 每个 token 只占若干基本类型数组中的一格，读取时用下标访问，可以任意向前看
+ * 可以一次性整体填满（Tokenizer.tokenizeAll），也可以在读取时按需从 tokenizer 填充
+ * 按需填充时数组是一个定长的环，只保留最近的 WINDOW 个 token，内存占用与输入大小无关
+ */
+public class TokenBuffer {
+    // 按需填充时保留的 token 数，Analyser 只会回看当前位置附近的几个 token
+    static final int WINDOW = 1024;
+
+    // TokenType 的序号
+    byte[] types;
+    // 起止偏移
+    int[] starts;
+    int[] ends;
+    // UINT_LITERAL / CHAR_LITERAL 的值，DOUBLE_LITERAL 的原始位
+    long[] values;
+    // IDENT / STRING_LITERAL 在字符串池中的 id，其他 token 为 -1
+    int[] strings;
+
+    int size = 0;
+
+    // 下标 i 存放在 i & mask 处，整体填满时为 -1，即不取模
+    int mask = -1;
+
+    // 与 tokenizer 共用的字符串池
+    StringPool stringPool;
+
+    // 按需填充时的来源，整体填满后为 null
+    Tokenizer tokenizer;
+
+    LineTable lineTable;
+
+    public TokenBuffer(LineTable lineTable, StringPool stringPool) {
+        this(lineTable, stringPool, WINDOW);
+    }
+
+    TokenBuffer(LineTable lineTable, StringPool stringPool, int capacity) {
+        this.lineTable = lineTable;
+        this.stringPool = stringPool;
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.values = new long[capacity];
+        this.strings = new int[capacity];
+    }
+
+    /**
+     * 读取时按需从 tokenizer 中解析 token
+     */
+    public TokenBuffer(Tokenizer tokenizer) {
+        this(tokenizer.getLineTable(), tokenizer.getStringPool());
+        this.tokenizer = tokenizer;
+        this.mask = WINDOW - 1;
+    }
+
+    void add(TokenType tokenType, int start, int end, long value, int stringId) {
+        if (size == types.length && mask == -1) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        int slot = size & mask;
+        types[slot] = (byte) tokenType.ordinal();
+        starts[slot] = start;
+        ends[slot] = end;
+        values[slot] = value;
+        strings[slot] = stringId;
+        size++;
+        if (tokenType == TokenType.EOF) {
+            tokenizer = null;
+        }
+    }
+
+    /**
+     * 获取第 i 个 token 的类型，必要时先从 tokenizer 中解析到第 i 个
+     * 越过 EOF 的下标一律视为 EOF
+     */
+    public TokenType getType(int i) throws TokenizeError {
+        while (i >= size && tokenizer != null) {
+            tokenizer.nextToken(this);
+        }
+        if (i >= size) {
+            return TokenType.EOF;
+        }
+        if (i < size - types.length) {
+            throw new Error("token " + i + " has left the window");
+        }
+        return TokenType.VALUES[types[i & mask]];
+    }
+
+    // 以下方法只能用于已经通过 getType 读到的 token
+
+    public int getStart(int i) {
+        return starts[Math.min(i, size - 1) & mask];
+    }
+
+    public int getEnd(int i) {
+        return ends[Math.min(i, size - 1) & mask];
+    }
+
+    public long getLong(int i) {
+        return values[i & mask];
+    }
+
+    public double getDouble(int i) {
+        return Double.longBitsToDouble(values[i & mask]);
+    }
+
+    /**
+     * IDENT / STRING_LITERAL 在字符串池中的 id
+     */
+    public int getId(int i) {
+        return strings[i & mask];
+    }
+
+    public String getString(int i) {
+        return stringPool.get(strings[i & mask]);
+    }
+
+    /**
+     * 把第 i 个 token 还原成 Token 对象，只在报错等少数场合使用
+     */
+    public Token get(int i) {
+        i = Math.min(i, size - 1);
+        TokenType tokenType = TokenType.VALUES[types[i & mask]];
+        Object value;
+        switch (tokenType) {
+            case UINT_LITERAL:
+            case CHAR_LITERAL:
+                value = getLong(i);
+                break;
+            case DOUBLE_LITERAL:
+                value = getDouble(i);
+                break;
+            case IDENT:
+            case STRING_LITERAL:
+                value = getString(i);
+                break;
+            default:
+                value = tokenType.string;
+        }
+        return new Token(tokenType, value, getStart(i), getEnd(i));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+}
@@ -52,6 +52,8 @@ public enum TokenType {
     COMMENT(""),
     ;
 
+    static final TokenType[] VALUES = values();
+
     String string;
     TokenType(String string){
         this.string = string;
@@ -63,11 +65,62 @@ public enum TokenType {
     }
 
     public static TokenType getTokenType(String s) {
-        for(TokenType tokenType : TokenType.values()) {
+        for(TokenType tokenType : VALUES) {
             if(tokenType.string.equals(s)) {
                 return tokenType;
             }
         }
         return null;
     }
+
+    public static TokenType getKeyword(String s) {
+        return getKeyword(s, 0, s.length());
+    }
+
+    /**
+     * 关键字查找，先按长度、再按首字母分派，最多只做一次逐字符比较
+     *
+     * @return [start, end) 不是关键字时返回 null
+     */
+    public static TokenType getKeyword(CharSequence s, int start, int end) {
+        TokenType candidate;
+        switch (end - start) {
+            case 2:
+                switch (s.charAt(start)) {
+                    case 'f': candidate = FN_KW; break;
+                    case 'a': candidate = AS_KW; break;
+                    case 'i': candidate = IF_KW; break;
+                    default: return null;
+                }
+                break;
+            case 3:
+                candidate = LET_KW;
+                break;
+            case 4:
+                candidate = ELSE_KW;
+                break;
+            case 5:
+                switch (s.charAt(start)) {
+                    case 'c': candidate = CONST_KW; break;
+                    case 'w': candidate = WHILE_KW; break;
+                    case 'b': candidate = BREAK_KW; break;
+                    default: return null;
+                }
+                break;
+            case 6:
+                candidate = RETURN_KW;
+                break;
+            case 8:
+                candidate = CONTINUE_KW;
+                break;
+            default:
+                return null;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) != candidate.string.charAt(i - start)) {
+                return null;
+            }
+        }
+        return candidate;
+    }
 }
@@ -2,14 +2,112 @@ package miniplc0java.tokenizer;
 
 import miniplc0java.error.ErrorCode;
 import miniplc0java.error.TokenizeError;
-import miniplc0java.util.Pos;
+import miniplc0java.util.LineTable;
+import miniplc0java.util.StringPool;
+
+import java.nio.ByteBuffer;
 
 public class Tokenizer {
 
+    // 字符类别，由 CHAR_CLASS 表查出，代替 Character.isXxx 的判断链
+    static final byte OTHER = 0;
+    static final byte SPACE = 1;
+    static final byte DIGIT = 2;
+    static final byte ALPHA = 3;
+    static final byte QUOTE = 4;
+    static final byte DOUBLE_QUOTE = 5;
+    static final byte OPERATOR = 6;
+
+    /**
+     * ASCII 字符的类别表，非 ASCII 字符在 classOf 中单独处理
+     */
+    static final byte[] CHAR_CLASS = new byte[128];
+
+    /**
+     * 单字符运算符表，'-' '=' '!' '<' '>' '/' 可能与下一个字符组成新 token，不在表中
+     */
+    static final TokenType[] SINGLE_CHAR_OPERATOR = new TokenType[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) {
+                CHAR_CLASS[c] = SPACE;
+            }
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = ALPHA;
+            CHAR_CLASS[c - 'a' + 'A'] = ALPHA;
+        }
+        CHAR_CLASS['_'] = ALPHA;
+        CHAR_CLASS['\''] = QUOTE;
+        CHAR_CLASS['"'] = DOUBLE_QUOTE;
+        for (char c : "+-*/=!<>(){},:;".toCharArray()) {
+            CHAR_CLASS[c] = OPERATOR;
+        }
+
+        SINGLE_CHAR_OPERATOR['+'] = TokenType.PLUS;
+        SINGLE_CHAR_OPERATOR['*'] = TokenType.MUL;
+        SINGLE_CHAR_OPERATOR[';'] = TokenType.SEMICOLON;
+        SINGLE_CHAR_OPERATOR['('] = TokenType.L_PAREN;
+        SINGLE_CHAR_OPERATOR[')'] = TokenType.R_PAREN;
+        SINGLE_CHAR_OPERATOR['{'] = TokenType.L_BRACE;
+        SINGLE_CHAR_OPERATOR['}'] = TokenType.R_BRACE;
+        SINGLE_CHAR_OPERATOR[','] = TokenType.COMMA;
+        SINGLE_CHAR_OPERATOR[':'] = TokenType.COLON;
+    }
+
+    static byte classOf(char c) {
+        if (c < 128) {
+            return CHAR_CLASS[c];
+        } else if (Character.isLetter(c)) {
+            return ALPHA;
+        } else if (Character.isWhitespace(c)) {
+            return SPACE;
+        }
+        return OTHER;
+    }
+
+    static boolean isIdentChar(char c) {
+        byte charClass = classOf(c);
+        return charClass == ALPHA || charClass == DIGIT;
+    }
+
+    static boolean isDigit(char c) {
+        return c < 128 && CHAR_CLASS[c] == DIGIT;
+    }
+
     private StringIter it;
 
+    // 标识符和字符串字面量在解析时直接驻留为 id
+    private StringPool stringPool;
+
+    // 刚刚解析出的 token，由 lexXxx 方法填写，不为单个 token 分配对象
+    private TokenType tokenType;
+    private int startOffset;
+    private int endOffset;
+    // UINT_LITERAL / CHAR_LITERAL 的值，DOUBLE_LITERAL 的原始位
+    private long value;
+    // IDENT / STRING_LITERAL 在字符串池中的 id，其他 token 为 -1
+    private int stringId;
+
     public Tokenizer(StringIter it) {
+        this(it, new StringPool());
+    }
+
+    public Tokenizer(StringIter it, StringPool stringPool) {
         this.it = it;
+        this.stringPool = stringPool;
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    public LineTable getLineTable() {
+        return it.getLineTable();
     }
 
     /**
@@ -19,125 +117,179 @@ public class Tokenizer {
      * @throws TokenizeError 如果解析有异常则抛出
      */
     public Token nextToken() throws TokenizeError {
+        lex();
+        Object tokenValue;
+        switch (tokenType) {
+            case UINT_LITERAL:
+            case CHAR_LITERAL:
+                tokenValue = value;
+                break;
+            case DOUBLE_LITERAL:
+                tokenValue = Double.longBitsToDouble(value);
+                break;
+            case IDENT:
+            case STRING_LITERAL:
+                tokenValue = stringPool.get(stringId);
+                break;
+            default:
+                tokenValue = tokenType.string;
+        }
+        return new Token(tokenType, tokenValue, startOffset, endOffset);
+    }
+
+    /**
+     * 解析下一个 token 并追加到 buffer 末尾
+     *
+     * @return 追加的 token 类型
+     * @throws TokenizeError 如果解析有异常则抛出
+     */
+    public TokenType nextToken(TokenBuffer buffer) throws TokenizeError {
+        lex();
+        buffer.add(tokenType, startOffset, endOffset, value, stringId);
+        return tokenType;
+    }
+
+    /**
+     * 一次性把整个输入解析进一个 TokenBuffer，最后一个 token 是 EOF
+     */
+    public TokenBuffer tokenizeAll() throws TokenizeError {
+        TokenBuffer buffer = new TokenBuffer(getLineTable(), stringPool);
+        while (nextToken(buffer) != TokenType.EOF) ;
+        return buffer;
+    }
+
+    /**
+     * 解析下一个 token，注释在循环中直接跳过，不再递归调用
+     */
+    private void lex() throws TokenizeError {
         it.readAll();
 
-        skipSpaceCharacters();
+        while (true) {
+            skipSpaceCharacters();
 
-        if (it.isEOF()) {
-            return new Token(TokenType.EOF, "", it.currentPos(), it.currentPos());
-        }
+            value = 0;
+            stringId = -1;
+            if (it.isEOF()) {
+                setToken(TokenType.EOF, it.currentOffset());
+                return;
+            }
 
-        char peek = it.peekChar();
-        Token token = null;
-        if (Character.isDigit(peek)) {
-            token = lexUIntOrDoubleLiteral();
-        } else if (Character.isAlphabetic(peek) || peek == '_') {
-            token = lexIdentOrKeyword();
-        } else if (peek == '\'') {
-            token = lexCharLiteral();
-        } else if (peek == '"') {
-            token = lexStringLiteral();
-        } else {
-            token = lexOperatorOrCommentOrUnknown();
-            if (token.getTokenType() == TokenType.COMMENT) {
-                token = nextToken();
+            char peek = it.peekChar();
+            switch (classOf(peek)) {
+                case DIGIT:
+                    lexUIntOrDoubleLiteral();
+                    return;
+                case ALPHA:
+                    lexIdentOrKeyword();
+                    return;
+                case QUOTE:
+                    lexCharLiteral();
+                    return;
+                case DOUBLE_QUOTE:
+                    lexStringLiteral();
+                    return;
+                default:
+                    lexOperatorOrCommentOrUnknown();
+                    if (tokenType != TokenType.COMMENT) {
+                        return;
+                    }
             }
         }
-        System.out.print(token.toString() + " ");
-        return token;
     }
 
-    private Token lexUIntOrDoubleLiteral() throws TokenizeError {
-        Pos startPos = it.currentPos();
-        StringBuilder stringBuilder = new StringBuilder();
-        while (Character.isDigit(it.peekChar())) {
-            char peek = it.nextChar();
-            stringBuilder.append(peek);
-        }
+    private void setToken(TokenType tokenType, int startOffset) {
+        this.tokenType = tokenType;
+        this.startOffset = startOffset;
+        this.endOffset = it.currentOffset();
+    }
+
+    private void lexUIntOrDoubleLiteral() throws TokenizeError {
+        int startOffset = it.currentOffset();
+        skipDigits();
         if (it.peekChar() == '.') {
             it.nextChar();
-            stringBuilder.append('.');
-            if(!Character.isDigit(it.peekChar()))
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
-            while (Character.isDigit(it.peekChar())) {
-                stringBuilder.append(it.nextChar());
-            }
+            if(!isDigit(it.peekChar()))
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
+            skipDigits();
             if(it.peekChar() == 'e' || it.peekChar() == 'E') {
-                stringBuilder.append(it.nextChar());
+                it.nextChar();
                 if(it.peekChar() == '+' || it.peekChar() == '-') {
-                    stringBuilder.append(it.nextChar());
-                }
-                if(!Character.isDigit(it.peekChar()))
-                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
-                while (Character.isDigit(it.peekChar())) {
-                    stringBuilder.append(it.nextChar());
+                    it.nextChar();
                 }
+                if(!isDigit(it.peekChar()))
+                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
+                skipDigits();
             }
-            double value = Double.parseDouble(stringBuilder.toString());
-            Pos endPos = it.currentPos();
-            return new Token(TokenType.DOUBLE_LITERAL, value, startPos, endPos);
+            value = Double.doubleToRawLongBits(NumberParser.parseDouble(it, startOffset, it.currentOffset()));
+            setToken(TokenType.DOUBLE_LITERAL, startOffset);
+            return;
         }
-        Pos endPos = it.currentPos();
-        long value = Long.parseLong(stringBuilder.toString());
-        return new Token(TokenType.UINT_LITERAL, value, startPos, endPos);
+        value = NumberParser.parseUInt(it, startOffset, it.currentOffset());
+        if (value < 0) {
+            throw new TokenizeError(ErrorCode.IntegerOverflow, startOffset, it.getLineTable());
+        }
+        setToken(TokenType.UINT_LITERAL, startOffset);
     }
 
-    private Token lexIdentOrKeyword() throws TokenizeError {
-        Pos startPos = it.currentPos();
-        StringBuilder stringBuilder = new StringBuilder();
-        while (Character.isDigit(it.peekChar()) || Character.isLetter(it.peekChar()) || it.peekChar() == '_') {
-            char peek = it.nextChar();
-            stringBuilder.append(peek);
+    private void lexIdentOrKeyword() throws TokenizeError {
+        int startOffset = it.currentOffset();
+        ByteBuffer ascii = it.asciiBytes();
+        if (ascii != null) {
+            it.seek(AsciiScanner.skipIdent(ascii, startOffset, it.length()));
+        } else {
+            while (isIdentChar(it.peekChar())) {
+                it.nextChar();
+            }
         }
-        Pos endPos = it.currentPos();
-        String value = stringBuilder.toString();
+        int endOffset = it.currentOffset();
 
-        TokenType tokenType = TokenType.getTokenType(value);
-        if(tokenType == null)
+        TokenType tokenType = TokenType.getKeyword(it, startOffset, endOffset);
+        if (tokenType == null) {
             tokenType = TokenType.IDENT;
-        return new Token(tokenType, value, startPos, endPos);
+            stringId = stringPool.intern(it, startOffset, endOffset);
+        }
+        setToken(tokenType, startOffset);
     }
 
-    private Token lexCharLiteral() throws TokenizeError {
-        Pos startPos = it.currentPos();
-        StringBuilder stringBuilder = new StringBuilder();
+    private void lexCharLiteral() throws TokenizeError {
+        int startOffset = it.currentOffset();
+        char c = 0;
         if(it.peekChar() == '\'') {
             it.nextChar();
             if(isCharRegularChar(it.peekChar())) {
-                stringBuilder.append(it.nextChar());
+                c = it.nextChar();
             } else if(it.peekChar() == '\\') {
                 it.nextChar();
                 if(isEscapeSequenceChar(it.peekChar())) {
-                    stringBuilder.append(switchToEscapeSequenceChar(it.nextChar()));
+                    c = switchToEscapeSequenceChar(it.nextChar());
                 } else {
-                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                    throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
                 }
             } else {
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
             }
             if (it.peekChar() == '\'') {
                 it.nextChar();
             } else {
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
             }
         }
-        Pos endPos = it.currentPos();
-        long value = stringBuilder.charAt(0);
-        return new Token(TokenType.CHAR_LITERAL, value, startPos, endPos);
+        value = c;
+        setToken(TokenType.CHAR_LITERAL, startOffset);
     }
 
-    private Token lexStringLiteral() throws TokenizeError {
-        Pos startPos = it.currentPos();
+    private void lexStringLiteral() throws TokenizeError {
+        int startOffset = it.currentOffset();
         StringBuilder stringBuilder = new StringBuilder();
         if(it.peekChar() == '"') {
             it.nextChar();
-            while(isStringRegularChar(it.peekChar()) || it.peekChar() == '\\') {
+            while(!it.isEOF() && (isStringRegularChar(it.peekChar()) || it.peekChar() == '\\')) {
                 if(it.peekChar() == '\\') {
                     it.nextChar();
                     if(isEscapeSequenceChar(it.peekChar())) {
                         stringBuilder.append(switchToEscapeSequenceChar(it.nextChar()));
                     } else {
-                        throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                        throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
                     }
                 } else {
                     stringBuilder.append(it.nextChar());
@@ -146,75 +298,71 @@ public class Tokenizer {
             if (it.peekChar() == '"') {
                 it.nextChar();
             } else {
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
             }
         }
-        Pos endPos = it.currentPos();
-        String value = stringBuilder.toString();
-        return new Token(TokenType.STRING_LITERAL, value, startPos, endPos);
+        stringId = stringPool.intern(stringBuilder, 0, stringBuilder.length());
+        setToken(TokenType.STRING_LITERAL, startOffset);
     }
 
-    private Token lexOperatorOrCommentOrUnknown() throws TokenizeError {
+    private void lexOperatorOrCommentOrUnknown() throws TokenizeError {
         char peek = it.nextChar();
-        Pos startPos = it.currentPos();
+        int startOffset = it.previousOffset();
+        if (peek < 128 && SINGLE_CHAR_OPERATOR[peek] != null) {
+            setToken(SINGLE_CHAR_OPERATOR[peek], startOffset);
+            return;
+        }
         switch (peek) {
-            case '+':
-                return new Token(TokenType.PLUS, peek, it.previousPos(), it.currentPos());
-            case '*':
-                return new Token(TokenType.MUL, peek, it.previousPos(), it.currentPos());
-            case ';':
-                return new Token(TokenType.SEMICOLON, peek, it.previousPos(), it.currentPos());
-            case '(':
-                return new Token(TokenType.L_PAREN, peek, it.previousPos(), it.currentPos());
-            case ')':
-                return new Token(TokenType.R_PAREN, peek, it.previousPos(), it.currentPos());
-            case '{':
-                return new Token(TokenType.L_BRACE, peek, it.previousPos(), it.currentPos());
-            case '}':
-                return new Token(TokenType.R_BRACE, peek, it.previousPos(), it.currentPos());
-            case ',':
-                return new Token(TokenType.COMMA, peek, it.previousPos(), it.currentPos());
-            case ':':
-                return new Token(TokenType.COLON, peek, it.previousPos(), it.currentPos());
             case '-':
                 if(it.peekChar() == '>'){
                     it.nextChar();
-                    return new Token(TokenType.ARROW, TokenType.ARROW.string, startPos, it.currentPos());
+                    setToken(TokenType.ARROW, startOffset);
+                    return;
                 }
-                return new Token(TokenType.MINUS, peek, it.previousPos(), it.currentPos());
+                setToken(TokenType.MINUS, startOffset);
+                return;
             case '=':
                 if(it.peekChar() == '='){
                     it.nextChar();
-                    return new Token(TokenType.EQ, TokenType.EQ.string, startPos, it.currentPos());
+                    setToken(TokenType.EQ, startOffset);
+                    return;
                 }
-                return new Token(TokenType.ASSIGN, peek, it.previousPos(), it.currentPos());
+                setToken(TokenType.ASSIGN, startOffset);
+                return;
             case '!':
                 if(it.peekChar() == '='){
                     it.nextChar();
-                    return new Token(TokenType.NEQ, TokenType.NEQ.string, startPos, it.currentPos());
+                    setToken(TokenType.NEQ, startOffset);
+                    return;
                 }
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
             case '<':
                 if(it.peekChar() == '='){
                     it.nextChar();
-                    return new Token(TokenType.LE, TokenType.LE.string, startPos, it.currentPos());
+                    setToken(TokenType.LE, startOffset);
+                    return;
                 }
-                return new Token(TokenType.LT, peek, it.previousPos(), it.currentPos());
+                setToken(TokenType.LT, startOffset);
+                return;
             case '>':
                 if(it.peekChar() == '='){
                     it.nextChar();
-                    return new Token(TokenType.GE, TokenType.GE.string, startPos, it.currentPos());
+                    setToken(TokenType.GE, startOffset);
+                    return;
                 }
-                return new Token(TokenType.GT, peek, it.previousPos(), it.currentPos());
+                setToken(TokenType.GT, startOffset);
+                return;
             case '/':
                 if(it.peekChar() == '/'){
                     it.nextChar();
-                    while(it.nextChar() != '\n') ;
-                    return new Token(TokenType.COMMENT, null, startPos, it.currentPos());
+                    skipLine();
+                    setToken(TokenType.COMMENT, startOffset);
+                    return;
                 }
-                return new Token(TokenType.DIV, peek, it.previousPos(), it.currentPos());
+                setToken(TokenType.DIV, startOffset);
+                return;
             default:
-                throw new TokenizeError(ErrorCode.InvalidInput, it.previousPos());
+                throw new TokenizeError(ErrorCode.InvalidInput, it.previousOffset(), it.getLineTable());
         }
     }
 
@@ -247,9 +395,46 @@ public class Tokenizer {
         }
     }
 
+    private void skipDigits() {
+        ByteBuffer ascii = it.asciiBytes();
+        if (ascii != null) {
+            it.seek(AsciiScanner.skipDigits(ascii, it.currentOffset(), it.length()));
+            return;
+        }
+        while (isDigit(it.peekChar())) {
+            it.nextChar();
+        }
+    }
+
+    /**
+     * 跳过注释余下的部分，包括结尾的换行
+     */
+    private void skipLine() {
+        ByteBuffer ascii = it.asciiBytes();
+        if (ascii != null) {
+            int end = it.length();
+            it.seek(Math.min(AsciiScanner.findNewline(ascii, it.currentOffset(), end) + 1, end));
+            return;
+        }
+        while(!it.isEOF() && it.nextChar() != '\n') {
+            it.mark();
+        }
+    }
+
+    /**
+     * 跳过空白，同时推进 mark，使流式输入不必保留已经跳过的内容
+     */
     private void skipSpaceCharacters() {
-        while (!it.isEOF() && Character.isWhitespace(it.peekChar())) {
+        ByteBuffer ascii = it.asciiBytes();
+        if (ascii != null) {
+            it.seek(AsciiScanner.skipSpaces(ascii, it.currentOffset(), it.length()));
+            it.mark();
+            return;
+        }
+        it.mark();
+        while (!it.isEOF() && classOf(it.peekChar()) == SPACE) {
             it.nextChar();
+            it.mark();
         }
     }
 }
@@ -0,0 +1,57 @@
+package miniplc0java.util;
+
+import java.util.Arrays;
+
+/**
+ * 行首偏移表
+ * token 中只保存偏移，只有在真正报错时才通过这张表换算成行号和列号
+ */
+public class LineTable {
+    // 源文件，表第一次被查询时才扫描一遍建立行首索引
+    CharSequence source;
+    // 每一行第一个字符的偏移，第 0 行总是从 0 开始
+    int[] lineStarts = new int[16];
+    int lines = 1;
+
+    public LineTable(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * 由调用者在读到换行时逐行登记
+     */
+    public LineTable() {
+        this.source = null;
+    }
+
+    /**
+     * 登记一个新行的行首偏移，偏移必须递增
+     */
+    public void addLine(int start) {
+        if (lines == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+        }
+        lineStarts[lines++] = start;
+    }
+
+    private void build() {
+        int length = source.length();
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(i) == '\n') {
+                addLine(i + 1);
+            }
+        }
+        source = null;
+    }
+
+    public Pos toPos(int offset) {
+        if (source != null) {
+            build();
+        }
+        int row = Arrays.binarySearch(lineStarts, 0, lines, offset);
+        if (row < 0) {
+            row = -row - 2;
+        }
+        return new Pos(row, offset - lineStarts[row]);
+    }
+}
@@ -0,0 +1,91 @@
+package miniplc0java.util;
+
+import java.util.Arrays;
+
+/**
+ * 整个编译过程共用的字符串驻留池
+ * 每个不同的标识符或字符串字面量对应一个从 0 开始的连续 id，
+ * 词法分析时直接按源码区间查找，重复出现的名字不再创建 String，之后的符号表都按 id 查找
+ */
+public class StringPool {
+    // id -> 字符串及其哈希值
+    String[] strings = new String[256];
+    int[] hashes = new int[256];
+    int size = 0;
+
+    // 开放寻址的哈希表，保存 id + 1，0 表示空槽
+    int[] table = new int[512];
+
+    public int intern(String s) {
+        return intern(s, 0, s.length());
+    }
+
+    /**
+     * 查找 [start, end) 对应的 id，第一次出现时才创建字符串
+     */
+    public int intern(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(strings[id], s, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        strings[id] = s.subSequence(start, end).toString();
+        hashes[id] = hash;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    public String get(int id) {
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String string, CharSequence s, int start, int end) {
+        if (string.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (string.charAt(i - start) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
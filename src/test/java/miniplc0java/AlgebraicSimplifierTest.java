@@ -0,0 +1,198 @@
+package miniplc0java;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongUnaryOperator;
+
+import static org.junit.Assert.*;
+
+public class AlgebraicSimplifierTest {
+    private static final long[] INT_VALUES = {
+            0, 1, -1, 2, -2, 3, -7, 1L << 62, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+    private static final double[] DOUBLE_VALUES = {
+            0.0, -0.0, 1.0, -2.5, Double.MIN_VALUE, Double.MAX_VALUE,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN};
+
+    /**
+     * 编译 fn f(x: ty) -> ty { return expr; }，返回 f 的函数体
+     */
+    private static List<Instruction> compileFunction(String type, String expr) throws CompileError {
+        String source = "fn f(x: " + type + ") -> " + type + " { return " + expr + "; } fn main() -> void { }";
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        return functionTables.get("f").getBody();
+    }
+
+    /**
+     * 按虚拟机的语义执行只有一个参数、没有分支和调用的函数体，返回写入返回值槽位的值
+     */
+    private static long run(List<Instruction> body, long x) {
+        long[] slots = {0, x};
+        long[] stack = new long[16];
+        int sp = 0;
+        for (Instruction instruction : body) {
+            Object operand = instruction.getX();
+            long r;
+            switch (instruction.getOpt()) {
+                case push:
+                    stack[sp++] = operand instanceof Double ? Double.doubleToRawLongBits((double) operand) : ((Number) operand).longValue();
+                    break;
+                case arga:
+                    stack[sp++] = ((Number) operand).longValue();
+                    break;
+                case load64:
+                    stack[sp - 1] = slots[(int) stack[sp - 1]];
+                    break;
+                case store64:
+                    sp -= 2;
+                    slots[(int) stack[sp]] = stack[sp + 1];
+                    break;
+                case dup:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case ret:
+                    return slots[0];
+                case addi:
+                    r = stack[--sp];
+                    stack[sp - 1] += r;
+                    break;
+                case subi:
+                    r = stack[--sp];
+                    stack[sp - 1] -= r;
+                    break;
+                case muli:
+                    r = stack[--sp];
+                    stack[sp - 1] *= r;
+                    break;
+                case divi:
+                    r = stack[--sp];
+                    stack[sp - 1] /= r;
+                    break;
+                case shl:
+                    r = stack[--sp];
+                    stack[sp - 1] <<= r;
+                    break;
+                case negi:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case addf:
+                case subf:
+                case mulf:
+                case divf:
+                    double right = Double.longBitsToDouble(stack[--sp]);
+                    double left = Double.longBitsToDouble(stack[sp - 1]);
+                    double value = instruction.getOpt() == Operation.addf ? left + right
+                            : instruction.getOpt() == Operation.subf ? left - right
+                            : instruction.getOpt() == Operation.mulf ? left * right : left / right;
+                    stack[sp - 1] = Double.doubleToRawLongBits(value);
+                    break;
+                case negf:
+                    stack[sp - 1] = Double.doubleToRawLongBits(-Double.longBitsToDouble(stack[sp - 1]));
+                    break;
+                default:
+                    throw new AssertionError("unexpected " + instruction);
+            }
+        }
+        throw new AssertionError("no ret");
+    }
+
+    private static void assertAbsent(String expr, List<Instruction> body, Operation... absent) {
+        for (Operation opt : absent) {
+            for (Instruction instruction : body) {
+                assertFalse(expr + ": " + body, instruction.getOpt() == opt);
+            }
+        }
+    }
+
+    private static void assertSameInt(String expr, LongUnaryOperator expected, Operation... absent) throws CompileError {
+        List<Instruction> body = compileFunction("int", expr);
+        assertAbsent(expr, body, absent);
+        for (long x : INT_VALUES) {
+            assertEquals(expr + " at " + x, expected.applyAsLong(x), run(body, x));
+        }
+    }
+
+    private static void assertSameDouble(String expr, DoubleUnaryOperator expected, Operation... absent) throws CompileError {
+        List<Instruction> body = compileFunction("double", expr);
+        assertAbsent(expr, body, absent);
+        for (double x : DOUBLE_VALUES) {
+            long result = run(body, Double.doubleToRawLongBits(x));
+            assertEquals(expr + " at " + x, Double.doubleToLongBits(expected.applyAsDouble(x)), Double.doubleToLongBits(Double.longBitsToDouble(result)));
+        }
+    }
+
+    @Test
+    public void testIdentities() throws CompileError {
+        assertSameInt("x + 0", x -> x + 0, Operation.addi);
+        assertSameInt("0 + x", x -> 0 + x, Operation.addi);
+        assertSameInt("x - 0", x -> x - 0, Operation.subi);
+        assertSameInt("x * 1", x -> x * 1, Operation.muli);
+        assertSameInt("1 * x", x -> 1 * x, Operation.muli);
+        assertSameInt("x / 1", x -> x / 1, Operation.divi);
+        assertSameInt("-(-x)", x -> -(-x), Operation.negi);
+        assertSameInt("x * 0 + x * 1", x -> x * 0 + x * 1, Operation.muli, Operation.addi);
+    }
+
+    @Test
+    public void testNegation() throws CompileError {
+        assertSameInt("0 - x", x -> 0 - x, Operation.subi);
+        assertSameInt("x * -1", x -> x * -1, Operation.muli);
+        assertSameInt("-1 * x", x -> -1 * x, Operation.muli);
+        assertSameInt("x / -1", x -> x / -1, Operation.divi);
+    }
+
+    @Test
+    public void testShift() throws CompileError {
+        assertSameInt("x * 8", x -> x * 8, Operation.muli);
+        assertTrue(compileFunction("int", "x * 8").contains(new Instruction(Operation.shl)));
+        assertSameInt("2 * x", x -> 2 * x, Operation.muli);
+        assertSameInt("x * 4611686018427387904", x -> x * 4611686018427387904L, Operation.muli);
+        assertSameInt("x * 4 * 2 + 3", x -> x * 4 * 2 + 3, Operation.muli);
+        // 带符号除法向零取整，不改成移位
+        assertSameInt("x / 4", x -> x / 4);
+        assertSameInt("x * 6", x -> x * 6);
+        assertSameInt("x * -4", x -> x * -4);
+    }
+
+    @Test
+    public void testCallsAreKept() throws CompileError {
+        List<Instruction> body = compileFunction("int", "getint() * 0");
+        assertTrue(body.contains(new Instruction(Operation.scani)));
+    }
+
+    @Test
+    public void testDivisionByVariableIsKept() throws CompileError {
+        // x 为 0 时 (1 / x) * 0 仍要 panic
+        assertTrue(compileFunction("int", "(1 / x) * 0").contains(new Instruction(Operation.divi)));
+        assertSameInt("(x / 2) * 0", x -> 0, Operation.divi, Operation.muli);
+    }
+
+    @Test
+    public void testDoubles() throws CompileError {
+        assertSameDouble("x * 1.0", x -> x * 1.0, Operation.mulf);
+        assertSameDouble("1.0 * x", x -> 1.0 * x, Operation.mulf);
+        assertSameDouble("x / 1.0", x -> x / 1.0, Operation.divf);
+        assertSameDouble("x - 0.0", x -> x - 0.0, Operation.subf);
+        assertSameDouble("x + -0.0", x -> x + -0.0, Operation.addf);
+        assertSameDouble("-(-x)", x -> -(-x), Operation.negf);
+        // 这些对 -0.0 或 NaN 会改变结果，保持原样
+        assertSameDouble("x + 0.0", x -> x + 0.0);
+        assertSameDouble("x * 0.0", x -> x * 0.0);
+        assertSameDouble("0.0 - x", x -> 0.0 - x);
+    }
+}
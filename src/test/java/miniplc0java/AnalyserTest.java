@@ -1,9 +1,13 @@
 package miniplc0java;
 
 import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
 import miniplc0java.analyser.FunctionTable;
 import miniplc0java.analyser.SymbolEntry;
 import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
 import miniplc0java.tokenizer.StringIter;
 import miniplc0java.tokenizer.Token;
 import miniplc0java.tokenizer.TokenType;
@@ -12,8 +16,12 @@ import miniplc0java.vm.o0;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -52,11 +60,12 @@ public class AnalyserTest {
             var iter = new StringIter(scanner);
             var tokenizer = tokenize(iter);
             var globalTable = new SymbolTable();
+            var constantPool = new ConstantPool();
             HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
 
-            var analyzer = new Analyser(tokenizer, globalTable, functionTables);
+            var analyzer = new Analyser(tokenizer, globalTable, constantPool, functionTables);
             analyzer.analyse();
-            o0 o00 = new o0(globalTable, functionTables);
+            o0 o00 = new o0(constantPool, functionTables);
 
             System.out.println(o00.toString());
             System.out.println(o00.toVmCode());
@@ -69,6 +78,138 @@ public class AnalyserTest {
         }
     }
 
+    private static byte[] compile(String source) throws CompileError {
+        var constantPool = new ConstantPool();
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), constantPool, functionTables).analyse();
+        List<Byte> code = new o0(constantPool, functionTables).toVmCode();
+        byte[] bytes = new byte[code.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = code.get(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 表达式分析不递归，很深的括号和负号在很小的线程栈上也能编译，结果与去掉它们后相同
+     */
+    @Test
+    public void testDeepExpression() throws Throwable {
+        int depth = 100000;
+        String deep = "fn main() -> void { let a: int = " + "(".repeat(depth) + "1" + ")".repeat(depth)
+                + "; let b: int = " + "-".repeat(2 * depth) + "a" + " + a".repeat(depth) + "; putint(b); }";
+        String flat = "fn main() -> void { let a: int = 1; let b: int = a" + " + a".repeat(depth) + "; putint(b); }";
+        Throwable[] error = new Throwable[1];
+        byte[][] result = new byte[2][];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = compile(deep);
+                result[1] = compile(flat);
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "deep-expression", 256 * 1024);
+        thread.start();
+        thread.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        assertArrayEquals(result[1], result[0]);
+    }
+
+    /**
+     * 重复的字符串字面量和与函数名相同的字面量共用一个全局变量，字面量也不会覆盖同名的全局变量
+     */
+    @Test
+    public void testStringsAreDeduplicated() throws CompileError {
+        String source = "let x: int = 1; "
+                + "fn f() -> void { putstr(\"f\"); putstr(\"x\"); } "
+                + "fn main() -> void { putstr(\"x\"); putstr(\"main\"); putstr(\"x\"); x = 2; f(); }";
+        var constantPool = new ConstantPool();
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), constantPool, functionTables).analyse();
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < constantPool.size(); i++) {
+            SymbolEntry symbolEntry = constantPool.getGlobals().get(i);
+            assertEquals(i, symbolEntry.getOrder());
+            values.add(symbolEntry.getValue());
+        }
+        assertEquals(Arrays.asList("_start", null, "f", "x", "main"), values);
+        List<Instruction> main = functionTables.get("main").getBody();
+        assertEquals(Instruction.pushString(3), main.get(0));
+        assertEquals(Instruction.pushString(4), main.get(2));
+        assertEquals(Instruction.pushString(3), main.get(4));
+        assertEquals(new Instruction(Operation.globa, 1), main.get(6));
+    }
+
+    /**
+     * 块结束后它的局部变量槽位给之后的块复用，locals 为同时存在的局部变量数的最大值
+     */
+    @Test
+    public void testSiblingScopesShareSlots() throws CompileError {
+        String source = "fn main() -> void { let a: int = 1; "
+                + "{ let b: int = 2; let c: int = 3; putint(b + c); } "
+                + "while a < 3 { let d: int = a; { let e: int = d; putint(e); } a = a + 1; } "
+                + "if a > 0 { let f: int = 4; putint(f); } else { let g: int = 5; let h: int = 6; let i: int = 7; putint(g + h + i); } "
+                + "let j: int = a; putint(j); }";
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        FunctionTable main = functionTables.get("main");
+        // a 和 else 块中的 g、h、i
+        assertEquals(4, main.getLocals());
+        // j 在所有块结束之后声明，使用 a 之后的第一个槽位
+        List<Instruction> body = main.getBody();
+        assertEquals(new Instruction(Operation.loca, 1), body.get(body.size() - 8));
+    }
+
+    /**
+     * return 自己的调用先算出全部实参再存回参数，然后跳回函数开头，不生成 callname
+     */
+    @Test
+    public void testSelfTailCallBecomesLoop() throws CompileError {
+        String source = "fn sum(n: int, acc: int) -> int { if n == 0 { return acc; } return sum(n - 1, acc + n); } "
+                + "fn main() -> void { putint(sum(10, 0)); }";
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        List<Instruction> sum = functionTables.get("sum").getBody();
+        assertFalse(sum.contains(new Instruction(Operation.callname, functionTables.get("sum").getOrder())));
+        int start = sum.indexOf(new Instruction(Operation.subi)) - 4;
+        assertEquals(List.of(
+                new Instruction(Operation.arga, 1),
+                new Instruction(Operation.arga, 1), new Instruction(Operation.load64), new Instruction(Operation.push, 1L), new Instruction(Operation.subi),
+                new Instruction(Operation.arga, 2),
+                new Instruction(Operation.arga, 2), new Instruction(Operation.load64), new Instruction(Operation.arga, 1), new Instruction(Operation.load64), new Instruction(Operation.addi),
+                new Instruction(Operation.store64), new Instruction(Operation.store64),
+                new Instruction(Operation.br, -(start + 14))), sum.subList(start, start + 14));
+    }
+
+    /**
+     * while 倒置为先判断一次条件、每次循环末尾再判断一次，continue 跳到末尾的条件，break 跳出循环
+     */
+    @Test
+    public void testWhileIsRotated() throws CompileError {
+        String source = "fn main() -> void { let i: int = 0; while i < 3 { i = i + 1; if i == 1 { continue; } break; } }";
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        assertEquals(List.of(
+                new Instruction(Operation.loca, 0), new Instruction(Operation.push, 0L), new Instruction(Operation.store64),
+                new Instruction(Operation.loca, 0), new Instruction(Operation.load64), new Instruction(Operation.push, 3L),
+                new Instruction(Operation.cmpi), new Instruction(Operation.setlt), new Instruction(Operation.brfalse, 21),
+                new Instruction(Operation.loca, 0), new Instruction(Operation.loca, 0), new Instruction(Operation.load64),
+                new Instruction(Operation.push, 1L), new Instruction(Operation.addi), new Instruction(Operation.store64),
+                new Instruction(Operation.loca, 0), new Instruction(Operation.load64), new Instruction(Operation.push, 1L),
+                new Instruction(Operation.cmpi), new Instruction(Operation.not), new Instruction(Operation.brfalse, 2),
+                // continue
+                new Instruction(Operation.br, 2),
+                new Instruction(Operation.br, 0),
+                // break
+                new Instruction(Operation.br, 6),
+                new Instruction(Operation.loca, 0), new Instruction(Operation.load64), new Instruction(Operation.push, 3L),
+                new Instruction(Operation.cmpi), new Instruction(Operation.setlt), new Instruction(Operation.brtrue, -21),
+                new Instruction(Operation.ret)), functionTables.get("main").getBody());
+    }
+
     private static Tokenizer tokenize(StringIter iter) {
         var tokenizer = new Tokenizer(iter);
         return tokenizer;
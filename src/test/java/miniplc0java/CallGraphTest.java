@@ -0,0 +1,78 @@
+package miniplc0java;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolEntry;
+import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.CallGraph;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CallGraphTest {
+    ConstantPool constantPool = new ConstantPool();
+    HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+
+    private void compile(String source) throws CompileError {
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), constantPool, functionTables).analyse();
+    }
+
+    private List<String> globalNames() {
+        List<String> names = new ArrayList<>();
+        for (SymbolEntry symbolEntry : constantPool.getGlobals()) {
+            names.add(symbolEntry.getValue());
+        }
+        return names;
+    }
+
+    @Test
+    public void testUnreachableFunctionsAndGlobalsAreRemoved() throws CompileError {
+        compile("let g: int = 1; let h: int; "
+                + "fn unused() -> int { h = 2; putstr(\"no\"); return h; } "
+                + "fn helper() -> int { return g; } "
+                + "fn alsoUnused() -> void { putint(unused()); } "
+                + "fn main() -> void { putstr(\"yes\"); putint(helper()); }");
+        CallGraph callGraph = new CallGraph(constantPool, functionTables);
+        assertTrue(callGraph.isReachable(functionTables.get("helper")));
+        assertFalse(callGraph.isReachable(functionTables.get("unused")));
+        assertEquals(List.of(functionTables.get("unused")), callGraph.getCallees(functionTables.get("alsoUnused")));
+
+        assertTrue(callGraph.eliminate());
+        assertEquals(List.of("_start", "helper", "main"), new ArrayList<>(functionTables.keySet()));
+        // 没有初值的 h 只在 unused 中用到，和 unused、alsoUnused 的函数名以及 "no" 一起删掉
+        assertEquals(Arrays.asList("_start", null, "helper", "main", "yes"), globalNames());
+        // 序号与位置一致，函数名和指令引用的都是新序号
+        for (int i = 0; i < constantPool.size(); i++) {
+            assertEquals(i, constantPool.getGlobals().get(i).getOrder());
+        }
+        assertEquals(2, functionTables.get("helper").getOrder());
+        assertEquals(3, functionTables.get("main").getOrder());
+        List<Instruction> main = functionTables.get("main").getBody();
+        assertEquals(Instruction.pushString(4), main.get(0));
+        assertTrue(main.contains(new Instruction(Operation.callname, 2)));
+        assertEquals(new Instruction(Operation.globa, 1), functionTables.get("helper").getBody().get(1));
+    }
+
+    @Test
+    public void testIntegerPushIsNotRenumbered() throws CompileError {
+        compile("fn unused() -> void { } fn main() -> void { putint(4); putstr(\"s\"); }");
+        assertTrue(new CallGraph(constantPool, functionTables).eliminate());
+        List<Instruction> main = functionTables.get("main").getBody();
+        assertEquals(new Instruction(Operation.push, 4L), main.get(0));
+        assertEquals(Instruction.pushString(2), main.get(2));
+        assertNotEquals(new Instruction(Operation.push, 2L), main.get(2));
+    }
+}
@@ -0,0 +1,116 @@
+package miniplc0java;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.CommonSubexpressionEliminator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommonSubexpressionEliminatorTest {
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    /**
+     * a * b + 7，a、b 为局部变量 0、1
+     */
+    private static List<Instruction> expression() {
+        return List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.loca, 1), ins(Operation.load64),
+                ins(Operation.muli), push(7), ins(Operation.addi));
+    }
+
+    @Test
+    public void testValueOnTopBecomesDup() {
+        // putint((a * b + 7) * (a * b + 7))
+        List<Instruction> body = new ArrayList<>(expression());
+        body.addAll(expression());
+        body.addAll(List.of(ins(Operation.muli), ins(Operation.printi), ins(Operation.ret)));
+        assertEquals(2, CommonSubexpressionEliminator.eliminate(body, 2));
+        List<Instruction> expected = new ArrayList<>(expression());
+        expected.addAll(List.of(ins(Operation.dup), ins(Operation.muli), ins(Operation.printi), ins(Operation.ret)));
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testValueIsSpilledToNewSlot() {
+        // if a { putint(a * b + 7); putint(a * b + 7); }，第二个块中的重复计算存入槽位 2，brfalse 随之修正
+        List<Instruction> body = new ArrayList<>(List.of(ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 16)));
+        body.addAll(expression());
+        body.add(ins(Operation.printi));
+        body.addAll(expression());
+        body.addAll(List.of(ins(Operation.printi), ins(Operation.ret)));
+        assertEquals(3, CommonSubexpressionEliminator.eliminate(body, 2));
+        List<Instruction> expected = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 15), ins(Operation.loca, 2)));
+        expected.addAll(expression());
+        expected.addAll(List.of(
+                ins(Operation.store64), ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.printi),
+                ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.printi), ins(Operation.ret)));
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testStoresAndCallsInvalidate() {
+        // a * b + 7 中间给 a 赋值；g * 3 + 1 中间调用函数，g 为全局变量 0
+        List<Instruction> global = List.of(
+                ins(Operation.globa, 0), ins(Operation.load64), push(3), ins(Operation.muli), push(1), ins(Operation.addi));
+        List<Instruction> body = new ArrayList<>(expression());
+        body.add(ins(Operation.printi));
+        body.addAll(List.of(ins(Operation.loca, 0), push(1), ins(Operation.store64)));
+        body.addAll(expression());
+        body.add(ins(Operation.printi));
+        body.addAll(global);
+        body.add(ins(Operation.printi));
+        body.add(ins(Operation.callname, 1));
+        body.addAll(global);
+        body.addAll(List.of(ins(Operation.printi), ins(Operation.ret)));
+        List<Instruction> expected = new ArrayList<>(body);
+        assertEquals(2, CommonSubexpressionEliminator.eliminate(body, 2));
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testShortExpressionIsNotSpilled() {
+        // a * b 重新计算只要 5 条指令，存入槽位得不偿失
+        List<Instruction> product = expression().subList(0, 5);
+        List<Instruction> body = new ArrayList<>(product);
+        body.add(ins(Operation.printi));
+        body.addAll(product);
+        body.addAll(List.of(ins(Operation.printi), ins(Operation.ret)));
+        List<Instruction> expected = new ArrayList<>(body);
+        assertEquals(2, CommonSubexpressionEliminator.eliminate(body, 2));
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testStoreOfCallResultAfterManyValues() {
+        // 块中先有足够多的值编号，x = f() 的 store64 从调用后清空的栈上弹出地址时编号数组恰好扩大
+        for (int count = 50; count < 80; count++) {
+            List<Instruction> body = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                body.add(push(i));
+                body.add(ins(Operation.printi));
+            }
+            body.addAll(List.of(
+                    ins(Operation.loca, 0), ins(Operation.stackalloc, 1), ins(Operation.callname, 1), ins(Operation.store64),
+                    ins(Operation.ret)));
+            List<Instruction> expected = new ArrayList<>(body);
+            assertEquals(1, CommonSubexpressionEliminator.eliminate(body, 1));
+            assertEquals(expected, body);
+        }
+    }
+}
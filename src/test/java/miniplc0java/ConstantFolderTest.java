@@ -0,0 +1,82 @@
+package miniplc0java;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConstantFolderTest {
+
+    private static List<Instruction> compileMain(String body) throws CompileError {
+        String source = "fn main() -> void { " + body + " }";
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        return functionTables.get("main").getBody();
+    }
+
+    /**
+     * putint 的参数只剩一条 push 时返回它的值
+     */
+    private static Object printedConstant(String expr) throws CompileError {
+        List<Instruction> body = compileMain("putint(" + expr + ");");
+        assertEquals(body.toString(), 3, body.size());
+        assertEquals(Operation.push, body.get(0).getOpt());
+        return body.get(0).getX();
+    }
+
+    @Test
+    public void testIntegerWrapAround() throws CompileError {
+        assertEquals(7L, printedConstant("1 + 2 * 3"));
+        assertEquals(Long.MIN_VALUE, printedConstant("9223372036854775807 + 1"));
+        assertEquals(Long.MIN_VALUE, printedConstant("-9223372036854775807 - 1"));
+        assertEquals(Long.MIN_VALUE, printedConstant("-(-9223372036854775807 - 1)"));
+        assertEquals(-2L, printedConstant("9223372036854775807 * 2"));
+        assertEquals(-3L, printedConstant("-7 / 2"));
+        assertEquals(2L, printedConstant("2.9 as int"));
+    }
+
+    @Test
+    public void testComparisons() throws CompileError {
+        assertEquals(1L, printedConstant("(1 < 2) as int"));
+        assertEquals(0L, printedConstant("(2 <= 1) as int"));
+        assertEquals(1L, printedConstant("(2.0 >= 2.0) as int"));
+        assertEquals(-1L, printedConstant("(1 != 2) as int"));
+    }
+
+    @Test
+    public void testDivisionByZeroIsNotFolded() throws CompileError {
+        List<Instruction> body = compileMain("putint(1 / 0); putdouble(1.0 / 0.0);");
+        assertTrue(body.contains(new Instruction(Operation.divi)));
+        assertTrue(body.contains(new Instruction(Operation.divf)));
+    }
+
+    @Test
+    public void testDoubleFolding() throws CompileError {
+        List<Instruction> body = compileMain("putdouble(0.1 + 0.2 * -3.0);");
+        assertEquals(new Instruction(Operation.push, 0.1 + 0.2 * -3.0), body.get(0));
+        assertEquals(3, body.size());
+    }
+
+    @Test
+    public void testConstPropagation() throws CompileError {
+        List<Instruction> body = compileMain("const n: int = 4 * 4; const half: double = 0.5; let m: int = n + 1; putdouble(half * 3.0);");
+        // const 仍然保存到变量中，但之后的读取都替换成了常量
+        assertEquals(new Instruction(Operation.push, 16L), body.get(1));
+        assertEquals(new Instruction(Operation.push, 17L), body.get(7));
+        assertEquals(new Instruction(Operation.push, 1.5), body.get(9));
+        assertFalse(body.contains(new Instruction(Operation.load64)));
+    }
+}
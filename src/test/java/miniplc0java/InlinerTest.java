@@ -0,0 +1,116 @@
+package miniplc0java;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.Inliner;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InlinerTest {
+
+    private static HashMap<String, FunctionTable> compile(String source, int budget) throws CompileError {
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        Analyser analyser = new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables);
+        analyser.setInlineBudget(budget);
+        analyser.analyse();
+        return functionTables;
+    }
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    @Test
+    public void testSimpleArgumentAndResultStayOnStack() throws CompileError {
+        // 只读参数的实参是变量时直接读取它，以 return 结束的函数返回值留在栈上
+        FunctionTable main = compile("fn sq(x: int) -> int { return x * x; } "
+                + "fn main() -> void { let i: int = 3; putint(sq(i)); }", Inliner.DEFAULT_BUDGET).get("main");
+        assertEquals(List.of(
+                ins(Operation.loca, 0), push(3), ins(Operation.store64),
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.muli),
+                ins(Operation.printi), ins(Operation.ret)), main.getBody());
+        // 返回值和 x 的槽位没有用到，但仍然在 i 之后预留
+        assertEquals(3, main.getLocals());
+    }
+
+    @Test
+    public void testArgumentSlotsAndEarlyReturn() throws CompileError {
+        // 实参不是简单的值时存入槽位，提前的 return 换成跳到函数体之后的 br，返回值从槽位读出
+        FunctionTable main = compile("fn absv(x: int) -> int { if x < 0 { return -x; } return x; } "
+                + "fn main() -> void { let i: int = 3; putint(absv(i + 1)); }", Inliner.DEFAULT_BUDGET).get("main");
+        assertEquals(List.of(
+                ins(Operation.loca, 0), push(3), ins(Operation.store64),
+                ins(Operation.loca, 2), ins(Operation.loca, 0), ins(Operation.load64), push(1), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 2), ins(Operation.load64), push(0), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brfalse, 7),
+                ins(Operation.loca, 1), ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.negi), ins(Operation.store64),
+                ins(Operation.br, 5),
+                ins(Operation.br, 0),
+                ins(Operation.loca, 1), ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.store64),
+                ins(Operation.loca, 1), ins(Operation.load64),
+                ins(Operation.printi), ins(Operation.ret)), main.getBody());
+        // i、返回值、x
+        assertEquals(3, main.getLocals());
+    }
+
+    @Test
+    public void testRecursionAndBudget() throws CompileError {
+        String source = "fn fact(n: int) -> int { if n <= 1 { return 1; } return n * fact(n - 1); } "
+                + "fn one() -> int { return 1; } "
+                + "fn main() -> void { putint(fact(one())); }";
+        List<Instruction> main = compile(source, Inliner.DEFAULT_BUDGET).get("main").getBody();
+        assertTrue(main.contains(ins(Operation.callname, 1)));
+        assertFalse(main.contains(ins(Operation.callname, 2)));
+        List<Instruction> notInlined = compile(source, 0).get("main").getBody();
+        assertTrue(notInlined.contains(ins(Operation.callname, 2)));
+    }
+
+    @Test
+    public void testVoidCallee() throws CompileError {
+        // 没有返回值的函数展开后不读返回值，作为语句也不弹出
+        FunctionTable main = compile("fn show(x: int) -> void { putint(x); } "
+                + "fn main() -> void { show(2); show(3); }", Inliner.DEFAULT_BUDGET).get("main");
+        assertEquals(List.of(
+                push(2), ins(Operation.printi), push(3), ins(Operation.printi), ins(Operation.ret)), main.getBody());
+    }
+
+    @Test
+    public void testDiscardedResultIsPopped() throws CompileError {
+        // five 中作为语句的 one() 的返回值要弹出，否则内联到 3 * five() 中时乘的是它
+        HashMap<String, FunctionTable> functionTables = compile("fn one() -> int { return 1; } "
+                + "fn five() -> int { one(); return 5; } "
+                + "fn main() -> void { putint(3 * five()); }", Inliner.DEFAULT_BUDGET);
+        assertEquals(List.of(
+                push(1), ins(Operation.pop), ins(Operation.arga, 0), push(5), ins(Operation.store64), ins(Operation.ret)),
+                functionTables.get("five").getBody());
+        assertEquals(List.of(
+                push(3), push(1), ins(Operation.pop), push(5), ins(Operation.muli), ins(Operation.printi), ins(Operation.ret)),
+                functionTables.get("main").getBody());
+        // 不内联时调用前分配的返回值同样要弹出
+        assertEquals(List.of(
+                ins(Operation.stackalloc, 1), ins(Operation.callname, 1), ins(Operation.pop),
+                ins(Operation.arga, 0), push(5), ins(Operation.store64), ins(Operation.ret)),
+                compile("fn one() -> int { return 1; } fn five() -> int { one(); return 5; } fn main() -> void { }", 0).get("five").getBody());
+    }
+}
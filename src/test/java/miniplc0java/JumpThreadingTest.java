@@ -0,0 +1,95 @@
+package miniplc0java;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.BasicBlock;
+import miniplc0java.optimizer.ControlFlowGraph;
+import miniplc0java.optimizer.JumpThreading;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JumpThreadingTest {
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    @Test
+    public void testBlocksAndRoundTrip() {
+        // if x { putint(1); } else { putint(2); } while x { }
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 3),
+                push(1), ins(Operation.printi), ins(Operation.br, 2),
+                push(2), ins(Operation.printi),
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brtrue, -3),
+                ins(Operation.ret)));
+        List<Instruction> expected = new ArrayList<>();
+        for (Instruction instruction : body) {
+            expected.add(instruction.copy());
+        }
+        ControlFlowGraph cfg = new ControlFlowGraph(body);
+        List<BasicBlock> blocks = cfg.getBlocks();
+        assertEquals(5, blocks.size());
+        assertSame(blocks.get(2), blocks.get(0).getTarget());
+        assertSame(blocks.get(1), blocks.get(0).getNext());
+        assertNull(blocks.get(1).getNext());
+        assertSame(blocks.get(3), blocks.get(1).getTarget());
+        assertSame(blocks.get(3), blocks.get(3).getTarget());
+        assertEquals(List.of(blocks.get(1), blocks.get(2), blocks.get(3)), blocks.get(3).getPredecessors());
+        assertEquals(List.of(), blocks.get(4).getSuccessors());
+        cfg.linearize(body);
+        assertEquals(expected, body);
+    }
+
+    @Test
+    public void testBranchChains() {
+        // 内层循环的 break 跳到外层循环末尾的 br，外层循环末尾的 br 又跳到另一条 br
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 7),  // 0: -> 10
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.brtrue, 1),   // 3
+                ins(Operation.br, 1),                                                      // 6: break -> 8
+                push(1),                                                                   // 7
+                ins(Operation.br, 0),                                                      // 8: -> 9
+                ins(Operation.br, -10),                                                    // 9: -> 0
+                ins(Operation.br, 0),                                                      // 10: -> 11
+                ins(Operation.ret)));                                                      // 11
+        assertEquals(4, JumpThreading.thread(body));
+        assertEquals(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 6),
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.brtrue, 1),
+                ins(Operation.br, -7),
+                push(1),
+                ins(Operation.br, -9),
+                ins(Operation.ret)), body);
+    }
+
+    @Test
+    public void testConstantConditionAndReturn() {
+        // brfalse 跳到 push 0; brtrue 的块时条件已知不跳转，直接到它后面的块；br 到 ret 直接 ret
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 2),  // 0: -> 5
+                push(1), ins(Operation.br, 5),                                             // 3: -> 10
+                push(0), ins(Operation.brtrue, 2),                                         // 5
+                push(2), ins(Operation.printi),                                            // 7
+                ins(Operation.panic),                                                      // 9
+                ins(Operation.ret)));                                                      // 10
+        assertEquals(2, JumpThreading.thread(body));
+        assertEquals(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 2),
+                push(1), ins(Operation.ret),
+                push(2), ins(Operation.printi),
+                ins(Operation.panic)), body);
+    }
+}
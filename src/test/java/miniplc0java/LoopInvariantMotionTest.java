@@ -0,0 +1,111 @@
+package miniplc0java;
+
+import miniplc0java.analyser.Analyser;
+import miniplc0java.analyser.ConstantPool;
+import miniplc0java.analyser.FunctionTable;
+import miniplc0java.analyser.SymbolTable;
+import miniplc0java.error.CompileError;
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LoopInvariantMotionTest {
+
+    private static FunctionTable compileMain(String source) throws CompileError {
+        HashMap<String, FunctionTable> functionTables = new LinkedHashMap<>();
+        new Analyser(new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8))), new SymbolTable(), new ConstantPool(), functionTables).analyse();
+        return functionTables.get("main");
+    }
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    @Test
+    public void testNestedLoops() throws CompileError {
+        // n * 3 对两层循环都不变，提到外层循环之前；它乘以 i 后对内层循环不变，提到内层循环之前
+        FunctionTable main = compileMain("fn main() -> void { let n: int = 5; let i: int = 0; let s: int = 0; "
+                + "while i < n { let j: int = 0; while j < n { s = s + n * 3 * i; j = j + 1; } i = i + 1; } }");
+        assertEquals(List.of(
+                ins(Operation.loca, 0), push(5), ins(Operation.store64),
+                ins(Operation.loca, 1), push(0), ins(Operation.store64),
+                ins(Operation.loca, 2), push(0), ins(Operation.store64),
+                ins(Operation.loca, 4), ins(Operation.loca, 0), ins(Operation.load64), push(3), ins(Operation.muli), ins(Operation.store64),
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brfalse, 50),
+                ins(Operation.loca, 3), push(0), ins(Operation.store64),
+                ins(Operation.loca, 5), ins(Operation.loca, 4), ins(Operation.load64), ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.muli), ins(Operation.store64),
+                ins(Operation.loca, 3), ins(Operation.load64), ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brfalse, 20),
+                ins(Operation.loca, 2), ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.loca, 5), ins(Operation.load64), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 3), ins(Operation.loca, 3), ins(Operation.load64), push(1), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 3), ins(Operation.load64), ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brtrue, -20),
+                ins(Operation.loca, 1), ins(Operation.loca, 1), ins(Operation.load64), push(1), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brtrue, -50),
+                ins(Operation.ret)), main.getBody());
+        // n、i、s、j 和两个外提的值
+        assertEquals(6, main.getLocals());
+    }
+
+    @Test
+    public void testUnsafeOrChangingExpressionsStay() throws CompileError {
+        // 调用可能修改全局变量；除数不是非零常量的除法可能出错；条件为常量的循环不外提
+        FunctionTable main = compileMain("let g: int = 1; fn f() -> void { g = g + 1; } "
+                + "fn main() -> void { let n: int = 2; let i: int = 0; "
+                + "while i < 3 { putint(g * 2); putint(10 / n); f(); i = i + 1; } "
+                + "while 1 { putint(n + 1); break; } }");
+        assertEquals(2, main.getLocals());
+        assertFalse(main.getBody().contains(ins(Operation.loca, 2)));
+    }
+
+    @Test
+    public void testInductionVariableStrengthReduction() throws CompileError {
+        // (i * 4 + 3) * 8 = 32 * i + 24 在循环前算一次，每次 i = i + 1 之后加 32，两处使用共用一个槽位
+        FunctionTable main = compileMain("fn main() -> void { let i: int = 0; let s: int = 0; "
+                + "while i < 10 { s = s + (i * 4 + 3) * 8 - (i * 4 + 3) * 8 / 5; i = i + 1; } putint(s); }");
+        assertEquals(List.of(
+                ins(Operation.loca, 0), push(0), ins(Operation.store64),
+                ins(Operation.loca, 1), push(0), ins(Operation.store64),
+                ins(Operation.loca, 2), ins(Operation.loca, 0), ins(Operation.load64), push(2), ins(Operation.shl),
+                push(3), ins(Operation.addi), push(3), ins(Operation.shl), ins(Operation.store64),
+                ins(Operation.loca, 0), ins(Operation.load64), push(10), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brfalse, 30),
+                ins(Operation.loca, 1), ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.loca, 2), ins(Operation.load64), ins(Operation.addi),
+                ins(Operation.loca, 2), ins(Operation.load64), push(5), ins(Operation.divi), ins(Operation.subi), ins(Operation.store64),
+                ins(Operation.loca, 0), ins(Operation.loca, 0), ins(Operation.load64), push(1), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 2), ins(Operation.loca, 2), ins(Operation.load64), push(32), ins(Operation.addi), ins(Operation.store64),
+                ins(Operation.loca, 0), ins(Operation.load64), push(10), ins(Operation.cmpi), ins(Operation.setlt),
+                ins(Operation.brtrue, -30),
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.printi), ins(Operation.ret)), main.getBody());
+        // i、s 和归纳变量表达式的槽位
+        assertEquals(3, main.getLocals());
+    }
+
+    @Test
+    public void testCheapInductionExpressionStays() throws CompileError {
+        // 只有一处 i * 3，每次更新槽位的指令比省下的多
+        FunctionTable main = compileMain("fn main() -> void { let i: int = 0; let s: int = 0; "
+                + "while i < 10 { s = s + i * 3; i = i + 2; } putint(s); }");
+        assertEquals(2, main.getLocals());
+        assertTrue(main.getBody().contains(ins(Operation.muli)));
+    }
+}
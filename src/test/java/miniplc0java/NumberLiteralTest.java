@@ -0,0 +1,122 @@
+package miniplc0java;
+
+import miniplc0java.error.ErrorCode;
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 数字字面量的解析结果必须与 Long.parseLong / Double.parseDouble 逐位相同
+ */
+public class NumberLiteralTest {
+
+    private static TokenBuffer tokenize(List<String> literals) throws TokenizeError {
+        StringBuilder source = new StringBuilder();
+        for (String literal : literals) {
+            source.append(literal).append('\n');
+        }
+        return new Tokenizer(new StringIter(source.toString().getBytes(StandardCharsets.UTF_8))).tokenizeAll();
+    }
+
+    private static void assertSameDoubles(List<String> literals) throws TokenizeError {
+        TokenBuffer tokens = tokenize(literals);
+        for (int i = 0; i < literals.size(); i++) {
+            assertEquals(TokenType.DOUBLE_LITERAL, tokens.getType(i));
+            long expected = Double.doubleToRawLongBits(Double.parseDouble(literals.get(i)));
+            assertEquals(literals.get(i), expected, tokens.getLong(i));
+        }
+    }
+
+    @Test
+    public void testIntegers() throws TokenizeError {
+        List<String> literals = List.of("0", "7", "0042", "1234567890", "9223372036854775807");
+        TokenBuffer tokens = tokenize(literals);
+        for (int i = 0; i < literals.size(); i++) {
+            assertEquals(TokenType.UINT_LITERAL, tokens.getType(i));
+            assertEquals(Long.parseLong(literals.get(i)), tokens.getLong(i));
+        }
+    }
+
+    @Test
+    public void testIntegerOverflow() {
+        for (String literal : List.of("9223372036854775808", "18446744073709551616", "99999999999999999999999")) {
+            try {
+                tokenize(List.of("1 " + literal));
+                fail(literal);
+            } catch (TokenizeError e) {
+                assertEquals(ErrorCode.IntegerOverflow, e.getErr());
+                assertEquals(0, e.getPos().row);
+                assertEquals(2, e.getPos().col);
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleEdgeCases() throws TokenizeError {
+        assertSameDoubles(List.of(
+                "0.0", "000.000", "0.0e999", "1.0e-400", "1.0e400", "0.1", "0.3", "3.0e-5", "1.0e23",
+                "0.000000000000000000000000000000000000001",
+                // 2^53 附近
+                "9007199254740992.0", "9007199254740993.0", "9007199254740995.0",
+                // 超过 Long.MAX_VALUE 的 19 位尾数和更长的尾数
+                "9999999999999999999.0", "9223372036854775808.0", "18446744073709551615.0",
+                "1.00000000000000011102230246251565404236316680908203125",
+                // 最小规格化数、非规格化数和最大值附近
+                "2.2250738585072011e-308", "2.2250738585072012e-308", "4.9406564584124654e-324",
+                "2.4703282292062327e-324", "2.4703282292062328e-324", "1.7976931348623157e308",
+                "1.7976931348623158e308", "1.7976931348623159e308", "7.3177701707893310e+15", "8.589973E9"));
+    }
+
+    @Test
+    public void testRandomDoubles() throws TokenizeError {
+        Random random = new Random(20201217);
+        List<String> literals = new ArrayList<>();
+        while (literals.size() < 200000) {
+            String literal;
+            switch (random.nextInt(3)) {
+                case 0: {
+                    // 任意位模式的正有限 double 的最短表示
+                    double d = Math.abs(Double.longBitsToDouble(random.nextLong()));
+                    if (Double.isNaN(d) || Double.isInfinite(d)) {
+                        continue;
+                    }
+                    literal = Double.toString(d);
+                    break;
+                }
+                case 1:
+                    literal = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+                    break;
+                default: {
+                    // 随机的数字串，1 到 24 位，随机的指数
+                    StringBuilder builder = new StringBuilder();
+                    int digits = 1 + random.nextInt(24);
+                    for (int i = 0; i < digits; i++) {
+                        builder.append((char) ('0' + random.nextInt(10)));
+                    }
+                    builder.insert(1 + random.nextInt(digits), '.');
+                    if (builder.charAt(builder.length() - 1) == '.') {
+                        builder.append('0');
+                    }
+                    if (random.nextBoolean()) {
+                        builder.append(random.nextBoolean() ? 'e' : 'E')
+                                .append(random.nextBoolean() ? "-" : random.nextBoolean() ? "+" : "")
+                                .append(random.nextInt(360));
+                    }
+                    literal = builder.toString();
+                }
+            }
+            literals.add(literal);
+        }
+        assertSameDoubles(literals);
+    }
+}
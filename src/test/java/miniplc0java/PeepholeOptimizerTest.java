@@ -0,0 +1,86 @@
+package miniplc0java;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.PeepholeOptimizer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PeepholeOptimizerTest {
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    @Test
+    public void testBranchOffsetsAreRewritten() {
+        // while x > 0 { x = x; if ... {} } 形式的代码，中间的冗余指令删掉后，向前和向后的跳转都要修正
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64),       // 0: 循环开始
+                push(0), ins(Operation.cmpi), ins(Operation.setgt),
+                ins(Operation.brfalse, 9),                          // 5: -> 15
+                ins(Operation.loca, 1), ins(Operation.load64),
+                ins(Operation.loca, 1), ins(Operation.load64),      // 8: dup
+                ins(Operation.addi), ins(Operation.negi), ins(Operation.negi),
+                ins(Operation.br, 0),                               // 13: 删掉
+                ins(Operation.br, -15),                             // 14: -> 0
+                ins(Operation.ret)));
+        int removed = new PeepholeOptimizer().optimize(body);
+        assertEquals(4, removed);
+        assertEquals(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64),
+                push(0), ins(Operation.cmpi), ins(Operation.setgt),
+                ins(Operation.brfalse, 5),
+                ins(Operation.loca, 1), ins(Operation.load64), ins(Operation.dup),
+                ins(Operation.addi),
+                ins(Operation.br, -11),
+                ins(Operation.ret)), body);
+    }
+
+    @Test
+    public void testNotBeforeBranch() {
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.cmpi), ins(Operation.not), ins(Operation.not), ins(Operation.brfalse, 1),
+                ins(Operation.ret), ins(Operation.ret)));
+        new PeepholeOptimizer().optimize(body);
+        assertEquals(List.of(ins(Operation.cmpi), ins(Operation.brfalse, 1), ins(Operation.ret), ins(Operation.ret)), body);
+    }
+
+    @Test
+    public void testNoRewriteAcrossBranchTarget() {
+        // 第二次读取是跳转目标，不能改成 dup
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.brtrue, 2),
+                ins(Operation.loca, 1), ins(Operation.load64),
+                ins(Operation.loca, 1), ins(Operation.load64),
+                ins(Operation.ret)));
+        assertEquals(0, new PeepholeOptimizer().optimize(body));
+    }
+
+    @Test
+    public void testStoreReloadAndDeadValues() {
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.loca, 0), push(3), ins(Operation.store64), ins(Operation.loca, 0), ins(Operation.load64),
+                ins(Operation.printi),
+                push(1), ins(Operation.brfalse, 0),
+                ins(Operation.ret)));
+        new PeepholeOptimizer().optimize(body);
+        assertEquals(List.of(
+                ins(Operation.loca, 0), push(3), ins(Operation.store64), push(3),
+                ins(Operation.printi),
+                ins(Operation.ret)), body);
+        assertNotSame(body.get(1), body.get(3));
+    }
+}
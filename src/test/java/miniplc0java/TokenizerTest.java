@@ -1,8 +1,190 @@
 package miniplc0java;
 
+import miniplc0java.error.TokenizeError;
+import miniplc0java.tokenizer.ParallelTokenizer;
+import miniplc0java.tokenizer.StringIter;
+import miniplc0java.tokenizer.Token;
+import miniplc0java.tokenizer.TokenBuffer;
+import miniplc0java.tokenizer.TokenType;
+import miniplc0java.tokenizer.Tokenizer;
+import miniplc0java.util.StringPool;
 import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.*;
 
 public class TokenizerTest {
 
+    private static List<Token> tokenize(String source) throws TokenizeError {
+        var tokenizer = new Tokenizer(new StringIter(source.getBytes(StandardCharsets.UTF_8)));
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while ((token = tokenizer.nextToken()).getTokenType() != TokenType.EOF) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static List<TokenType> types(List<Token> tokens) {
+        List<TokenType> types = new ArrayList<>();
+        for (Token token : tokens) {
+            types.add(token.getTokenType());
+        }
+        return types;
+    }
+
+    @Test
+    public void testKeywordsAndIdentifiers() throws TokenizeError {
+        var tokens = tokenize("fn let const as while if else return break continue "
+                + "fnx lets a i constant whiles _else return1 brea continues");
+        assertEquals(List.of(TokenType.FN_KW, TokenType.LET_KW, TokenType.CONST_KW, TokenType.AS_KW,
+                TokenType.WHILE_KW, TokenType.IF_KW, TokenType.ELSE_KW, TokenType.RETURN_KW,
+                TokenType.BREAK_KW, TokenType.CONTINUE_KW), types(tokens.subList(0, 10)));
+        for (Token token : tokens.subList(10, tokens.size())) {
+            assertEquals(TokenType.IDENT, token.getTokenType());
+        }
+        assertEquals("return1", tokens.get(17).getValue());
+    }
+
+    @Test
+    public void testOperators() throws TokenizeError {
+        var tokens = tokenize("+ - * / = == != < > <= >= ( ) { } -> , : ;");
+        assertEquals(List.of(TokenType.PLUS, TokenType.MINUS, TokenType.MUL, TokenType.DIV, TokenType.ASSIGN,
+                TokenType.EQ, TokenType.NEQ, TokenType.LT, TokenType.GT, TokenType.LE, TokenType.GE,
+                TokenType.L_PAREN, TokenType.R_PAREN, TokenType.L_BRACE, TokenType.R_BRACE, TokenType.ARROW,
+                TokenType.COMMA, TokenType.COLON, TokenType.SEMICOLON), types(tokens));
+    }
+
+    @Test
+    public void testLiteralsAndOffsets() throws TokenizeError {
+        var tokens = tokenize("x = 42 + 1.5e2;\n'a' \"s\\n\"");
+        assertEquals(42L, tokens.get(2).getValue());
+        assertEquals(150.0, tokens.get(4).getValue());
+        assertEquals((long) 'a', tokens.get(6).getValue());
+        assertEquals("s\n", tokens.get(7).getValue());
+        assertEquals(4, tokens.get(2).getStartOffset());
+        assertEquals(6, tokens.get(2).getEndOffset());
+        assertEquals(16, tokens.get(6).getStartOffset());
+    }
+
+    @Test
+    public void testManyConsecutiveComments() throws TokenizeError {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            source.append("// comment line ").append(i).append('\n');
+        }
+        source.append("fn // trailing comment without newline");
+        assertEquals(List.of(TokenType.FN_KW), types(tokenize(source.toString())));
+    }
+
+    @Test
+    public void testStreamingMatchesInMemory() throws TokenizeError {
+        String source = "fn 变量(a: int) -> double {\n"
+                + "    // 注释 ü\n"
+                + "    let long_identifier_name: double = 12.5e-1 * 3.0;\n"
+                + "    putstr(\"héllo\\n\"); return long_identifier_name;\n"
+                + "    putstr(\"a string literal that is much longer than every window 字符串\");\n"
+                + "    // a comment that is also much longer than every window 注释 😀\n"
+                + "}\n// trailing";
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        List<Token> expected = tokenize(source);
+        // 窗口很小时 token 会跨过窗口边界，比窗口还长的标识符、字面量和注释让窗口自动扩大
+        for (int window : new int[]{1, 2, 8}) {
+            var tokenizer = new Tokenizer(new StringIter(Channels.newChannel(new ByteArrayInputStream(bytes)), window));
+            for (Token token : expected) {
+                Token actual = tokenizer.nextToken();
+                assertEquals(token.getTokenType(), actual.getTokenType());
+                assertEquals(token.getValue(), actual.getValue());
+                assertEquals(token.getStartOffset(), actual.getStartOffset());
+                assertEquals(token.getEndOffset(), actual.getEndOffset());
+            }
+            assertEquals(TokenType.EOF, tokenizer.nextToken().getTokenType());
+            assertEquals(6, tokenizer.getLineTable().toPos(expected.get(expected.size() - 1).getStartOffset()).row);
+        }
+    }
+
+    /**
+     * 整体读入的 ASCII 源码走按 8 字节扫描的路径，流式读入走逐字符的路径，两者结果应当相同
+     * 各种长度的空白、标识符和数字保证每一段都会在 8 字节组的各个位置结束
+     */
+    @Test
+    public void testWordScanMatchesCharScan() throws TokenizeError {
+        String source = wordScanSource();
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        var tokenizer = new Tokenizer(new StringIter(Channels.newChannel(new ByteArrayInputStream(bytes)), 4096));
+        for (Token token : tokenize(source)) {
+            assertEquals(token, tokenizer.nextToken());
+        }
+        assertEquals(TokenType.EOF, tokenizer.nextToken().getTokenType());
+    }
+
+    /**
+     * 映射的文件不在堆上，按 8 字节扫描直接读映射的缓冲区；并行解析时每个片段同样如此
+     */
+    @Test
+    public void testMappedFileMatchesCharScan() throws TokenizeError, IOException {
+        String source = wordScanSource();
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        TokenBuffer expected = new Tokenizer(new StringIter(Channels.newChannel(new ByteArrayInputStream(bytes)), 4096)).tokenizeAll();
+        Path path = Files.createTempFile("mapped", ".c0");
+        try {
+            Files.write(path, bytes);
+            TokenBuffer mapped = new Tokenizer(new StringIter(path)).tokenizeAll();
+            TokenBuffer parallel = new ParallelTokenizer(new StringIter(path), new StringPool(),
+                    ForkJoinPool.commonPool(), 100).tokenizeAll();
+            assertEquals(expected.size(), mapped.size());
+            assertEquals(expected.size(), parallel.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), mapped.get(i));
+                assertEquals(expected.get(i), parallel.get(i));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * 各种长度的空白、标识符、数字和注释
+     */
+    private static String wordScanSource() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            source.append(" ".repeat(i)).append("a_Z9".repeat(i % 5)).append("x").append(i).append(' ')
+                    .append("7".repeat(i % 19 + 1)).append(".").append("0".repeat(i % 11 + 1)).append("\t\r\n")
+                    .append("//").append("-".repeat(i)).append('\n');
+        }
+        return source.toString();
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws TokenizeError {
+        // 字符串和字符字面量中的换行、注释中的引号都不能作为切分点
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("let s").append(i).append(": int = \"a\n// \\\" b\n\";\n")
+                    .append("let c: int = '\n';\n")
+                    .append("let d: int = '\\''; // \"quote ").append(i).append('\n')
+                    .append("let e: int = '\"'; x / y_").append(i % 7).append(";\n");
+        }
+        byte[] bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+        TokenBuffer expected = new Tokenizer(new StringIter(bytes)).tokenizeAll();
+        for (int chunkSize : new int[]{100, 4096}) {
+            TokenBuffer actual = new ParallelTokenizer(new StringIter(bytes), new StringPool(),
+                    ForkJoinPool.commonPool(), chunkSize).tokenizeAll();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i));
+                assertEquals(expected.getId(i), actual.getId(i));
+            }
+        }
+    }
 }
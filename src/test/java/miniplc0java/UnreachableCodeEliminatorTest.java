@@ -0,0 +1,75 @@
+package miniplc0java;
+
+import miniplc0java.instruction.Instruction;
+import miniplc0java.instruction.Operation;
+import miniplc0java.optimizer.UnreachableCodeEliminator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UnreachableCodeEliminatorTest {
+
+    private static Instruction ins(Operation opt) {
+        return new Instruction(opt);
+    }
+
+    private static Instruction ins(Operation opt, int x) {
+        return new Instruction(opt, x);
+    }
+
+    private static Instruction push(long x) {
+        return new Instruction(Operation.push, x);
+    }
+
+    @Test
+    public void testCodeAfterReturnAndBreak() {
+        // if c { return 1; } else { return 2; } 之后的 br 和语句都执行不到
+        List<Instruction> body = new ArrayList<>(List.of(
+                ins(Operation.arga, 1), ins(Operation.load64),
+                ins(Operation.brfalse, 5),
+                ins(Operation.arga, 0), push(1), ins(Operation.store64), ins(Operation.ret),
+                ins(Operation.br, 4),
+                ins(Operation.arga, 0), push(2), ins(Operation.store64), ins(Operation.ret),
+                ins(Operation.printi), ins(Operation.ret)));
+        assertEquals(3, UnreachableCodeEliminator.eliminate(body));
+        assertEquals(List.of(
+                ins(Operation.arga, 1), ins(Operation.load64),
+                ins(Operation.brfalse, 4),
+                ins(Operation.arga, 0), push(1), ins(Operation.store64), ins(Operation.ret),
+                ins(Operation.arga, 0), push(2), ins(Operation.store64), ins(Operation.ret)), body);
+    }
+
+    @Test
+    public void testConstantLoopCondition() {
+        // while 1 { putint(x); if x { break; } } 条件不再计算，break 跳到循环之后
+        List<Instruction> body = new ArrayList<>(List.of(
+                push(1), ins(Operation.brfalse, 8),
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.printi),
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 1),
+                ins(Operation.br, 1),
+                ins(Operation.br, -10),
+                ins(Operation.ret)));
+        assertEquals(2, UnreachableCodeEliminator.eliminate(body));
+        assertEquals(List.of(
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.printi),
+                ins(Operation.loca, 0), ins(Operation.load64), ins(Operation.brfalse, 1),
+                ins(Operation.br, 1),
+                ins(Operation.br, -8),
+                ins(Operation.ret)), body);
+    }
+
+    @Test
+    public void testConstantFalseCondition() {
+        // if 0 { ... } 只剩 else
+        List<Instruction> body = new ArrayList<>(List.of(
+                push(0), ins(Operation.brfalse, 3),
+                push(1), ins(Operation.printi), ins(Operation.br, 2),
+                push(2), ins(Operation.printi),
+                ins(Operation.ret)));
+        UnreachableCodeEliminator.eliminate(body);
+        assertEquals(List.of(ins(Operation.br, 0), push(2), ins(Operation.printi), ins(Operation.ret)), body);
+    }
+}